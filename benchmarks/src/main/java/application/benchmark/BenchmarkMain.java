@@ -0,0 +1,29 @@
+package application.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 
+ * @author John Riley
+ * Runs the JMH benchmarks, writing JSON results unless another format is requested
+ * so runs of different releases can be compared
+ */
+public class BenchmarkMain {
+	
+	public static final String DEFAULT_RESULT_FILE = "jmh-results.json";
+	
+	public static void main(String[] args) throws Exception {
+		List<String> options = new ArrayList<String>(Arrays.asList(args));
+		if(!options.contains("-rf")){
+			options.add("-rf");
+			options.add("json");
+		}
+		if(!options.contains("-rff")){
+			options.add("-rff");
+			options.add(DEFAULT_RESULT_FILE);
+		}
+		org.openjdk.jmh.Main.main(options.toArray(new String[options.size()]));
+	}
+}
@@ -0,0 +1,122 @@
+package application.benchmark;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 
+ * @author John Riley
+ * Decoding a generated image corpus at full size and at thumbnail size.
+ * ImageIO is used since JavaFX images need a running toolkit, which
+ * benchmark machines without a display do not have.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+	
+	private static final int THUMBNAIL_SIZE = 64;
+	
+	@Param({"1024", "4096"})
+	public int edge;
+	
+	@Param({"jpg", "png"})
+	public String format;
+	
+	private Path directory;
+	private File image;
+	
+	@Setup
+	public void setup() throws IOException {
+		directory = Files.createTempDirectory("picshuffle-corpus");
+		image = directory.resolve("corpus." + format).toFile();
+		ImageIO.write(generate(edge, edge * 3 / 4, new Random(edge)), format, image);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(image.toPath());
+		Files.deleteIfExists(directory);
+	}
+	
+	@Benchmark
+	public BufferedImage decodeFull() throws IOException {
+		return ImageIO.read(image);
+	}
+	
+	@Benchmark
+	public BufferedImage decodeSubsampled() throws IOException {
+		try(ImageInputStream input = ImageIO.createImageInputStream(image)){
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(input, true, true);
+				int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / THUMBNAIL_SIZE);
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(step, step, 0, 0);
+				return reader.read(0, param);
+			}
+			finally{
+				reader.dispose();
+			}
+		}
+	}
+	
+	/**
+	 * Gradient with noise on top, so compression ratios resemble a photo 
+	 * more than a flat test pattern would
+	 */
+	static BufferedImage generate(int width, int height, Random rng){
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.BLUE));
+		g.fillRect(0, 0, width, height);
+		g.dispose();
+		
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				int noise = rng.nextInt(32) - 16;
+				int rgb = image.getRGB(x, y);
+				int r = clamp(((rgb >> 16) & 0xFF) + noise);
+				int gr = clamp(((rgb >> 8) & 0xFF) + noise);
+				int b = clamp((rgb & 0xFF) + noise);
+				image.setRGB(x, y, (r << 16) | (gr << 8) | b);
+			}
+		}
+		return image;
+	}
+	
+	private static int clamp(int value){
+		return Math.max(0, Math.min(255, value));
+	}
+}
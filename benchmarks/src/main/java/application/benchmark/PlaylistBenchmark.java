@@ -0,0 +1,108 @@
+package application.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import application.model.ImagePlaylist;
+import application.model.IndexedImagePlaylist;
+
+/**
+ * 
+ * @author John Riley
+ * Building, shuffling and navigating playlists of various sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaylistBenchmark {
+	
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+	
+	private List<String> paths;
+	private IndexedImagePlaylist playlist, lazilyShuffled;
+	private Random rng;
+	
+	@Setup
+	public void setup(){
+		paths = SyntheticPlaylists.paths(size);
+		
+		playlist = new IndexedImagePlaylist(true);
+		playlist.addAll(paths);
+		
+		lazilyShuffled = new IndexedImagePlaylist(true);
+		lazilyShuffled.addAll(paths);
+		lazilyShuffled.shuffleLazily(new Random(1));
+		
+		rng = new Random(42);
+	}
+	
+	@Benchmark
+	public ImagePlaylist addAll(){
+		ImagePlaylist p = new ImagePlaylist(size);
+		p.addAll(paths);
+		return p;
+	}
+	
+	@Benchmark
+	public String shuffle(){
+		playlist.shuffle(rng);
+		return playlist.get();
+	}
+	
+	@Benchmark
+	public String shuffleIndices(){
+		playlist.shuffleIndices(rng);
+		String first = playlist.get();
+		playlist.unshuffle();
+		return first;
+	}
+	
+	@Benchmark
+	public String shuffleLazily(){
+		playlist.shuffleLazily(rng);
+		String first = playlist.get();
+		playlist.unshuffle();
+		return first;
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String next(){
+		return playlist.next();
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String forward(){
+		return playlist.forward(5);
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String back(){
+		return playlist.back(5);
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String nextLazilyShuffled(){
+		return lazilyShuffled.next();
+	}
+}
@@ -0,0 +1,83 @@
+package application.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import application.model.AppUtils;
+import application.model.ImagePlaylist;
+import application.model.PlaylistFile;
+
+/**
+ * 
+ * @author John Riley
+ * Saving and opening playlist files
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaylistFileBenchmark {
+	
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+	
+	private Path directory;
+	private String savedPath, writePath;
+	private ImagePlaylist playlist;
+	
+	@Setup
+	public void setup() throws IOException {
+		playlist = new ImagePlaylist(size);
+		playlist.addAll(SyntheticPlaylists.paths(size));
+		
+		directory = Files.createTempDirectory("picshuffle-bench");
+		savedPath = directory.resolve("saved" + ImagePlaylist.FILE_EXTENSION).toString();
+		writePath = directory.resolve("written" + ImagePlaylist.FILE_EXTENSION).toString();
+		AppUtils.writeImagePlaylist(savedPath, playlist);
+	}
+	
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(new File(savedPath).toPath());
+		Files.deleteIfExists(new File(writePath).toPath());
+		Files.deleteIfExists(directory);
+	}
+	
+	@Benchmark
+	public void writeImagePlaylist() throws IOException {
+		AppUtils.writeImagePlaylist(writePath, playlist);
+	}
+	
+	@Benchmark
+	public ImagePlaylist readImagePlaylist() throws ClassNotFoundException, IOException {
+		return PlaylistFile.read(savedPath);
+	}
+	
+	/**
+	 * Opening maps the file, so one entry is read to include the cost of a lookup
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String openImagePlaylist() throws ClassNotFoundException, IOException {
+		ImagePlaylist opened = AppUtils.readImagePlaylist(savedPath);
+		return opened.get(opened.size() / 2);
+	}
+}
@@ -0,0 +1,43 @@
+package application.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import application.model.AppUtils;
+
+/**
+ * 
+ * @author John Riley
+ * Builds file lists shaped like a real photo archive, a few hundred folders
+ * holding thousands of images each. The files do not exist, so they must be
+ * added to playlists by path, adding them as files skips every one of them.
+ */
+public class SyntheticPlaylists {
+	
+	private static final int FILES_PER_FOLDER = 2000;
+	
+	private SyntheticPlaylists(){
+	}
+	
+	public static List<File> files(int size){
+		File root = new File(System.getProperty("java.io.tmpdir"), "picshuffle-archive");
+		List<File> files = new ArrayList<File>(size);
+		for(int i = 0; i < size; i++){
+			File folder = new File(root, String.format("%04d/%02d", i / FILES_PER_FOLDER / 12, 
+														(i / FILES_PER_FOLDER) % 12 + 1));
+			files.add(new File(folder, String.format("IMG_%07d.jpg", i)));
+		}
+		return files;
+	}
+	
+	/**
+	 * @return The paths a playlist stores for the files
+	 */
+	public static List<String> paths(int size){
+		List<String> paths = new ArrayList<String>(size);
+		for(File file : files(size))
+			paths.add(AppUtils.getImageFileName(file));
+		return paths;
+	}
+}
@@ -2,13 +2,37 @@ package application;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Executor;
 
 import application.model.AppUtils;
+import application.model.DuplicateIndex;
+import application.model.DuplicateIndexer;
+import application.model.FolderImporter;
+import application.model.FolderWatcher;
+import application.model.ImageLoader;
 import application.model.ImagePlaylist;
+import application.model.ImagePrefetcher;
 import application.model.IndexedImagePlaylist;
+import application.model.MetadataIndex;
+import application.model.PerformanceMonitor;
+import application.model.PlaylistFilter;
+import application.model.PlaylistSort;
+import application.model.PlaylistValidator;
+import application.model.SlideshowEngine;
+import application.model.SlideshowPolicy;
+import application.model.ThumbnailPopulator;
+import application.model.ThumbnailStore;
+import application.model.TileLoader;
+import application.model.TiledImage;
+import application.model.WeightedShuffleOrder;
+import application.view.PlaylistBrowser;
+import application.view.TiledImageView;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.property.DoubleProperty;
@@ -20,11 +44,16 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.ToggleGroup;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.StackPane;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
@@ -35,16 +64,50 @@ import javafx.stage.Stage;
  */
 public class Main extends Application {
 	
-	//private static final String RES_STOCK_IMAGE = "res/camera-icon-full.png";
-	//private static final String RES_STOCK_THUMBNAIL = "res/camera-icon.png";
+	private static final String RES_STOCK_IMAGE = "res/camera-icon-full.jpg";
+	private static final String RES_STOCK_THUMBNAIL = "res/camera-icon.jpg";
+	
+	/* Playlists larger than this are shuffled lazily as they are browsed */
+	private static final int LAZY_SHUFFLE_THRESHOLD = 100000;
 	
 	private Stage stage;
 	private Controller controller;
+	private ImageLoader imageLoader;
+	private ImagePrefetcher imagePrefetcher;
+	private FolderImporter folderImporter;
+	private FolderWatcher folderWatcher;
+	private PlaylistValidator playlistValidator;
+	
+	/* Perceptual hashes of the playlist, kept until the playlist changes */
+	private DuplicateIndexer duplicateIndexer;
+	private DuplicateIndex duplicateIndex;
+	private PerformanceMonitor performanceMonitor;
+	private ThumbnailStore thumbnailStore;
+	private ThumbnailPopulator thumbnailPopulator;
+	private MetadataIndex metadataIndex;
+	private TileLoader tileLoader;
+	
+	/* Column the playlist is sorted by and entries it shows, null for list order and all entries */
+	private PlaylistSort.Key sortKey;
+	private PlaylistFilter sortFilter;
+	
+	/* Set while the playlist is checked so the sort has the metadata of every entry */
+	private boolean sortPending;
+	
+	/* Window showing every thumbnail of the playlist, created the first time it is opened */
+	private Stage browserStage;
+	private PlaylistBrowser playlistBrowser;
+	
+	/* Interval and looping of the slideshow, kept between runs */
+	private SlideshowPolicy slideshowPolicy;
+	private SlideshowEngine<Image> slideshow;
+	
+	/* Time the navigation being handled started, for the performance monitor, 0 when not navigating */
+	private long navigationStart;
 	
-	private IndexedImagePlaylist imagePlaylist, unshuffledPlaylist;
+	private IndexedImagePlaylist imagePlaylist;
 	
 	private Random rng;
-	private boolean isShuffleOn;
 	
 	public static void main(String[] args) {
 		launch(args);
@@ -52,6 +115,20 @@ public class Main extends Application {
 	
     @Override
     public void start(Stage stage) throws Exception {
+    	imageLoader = new ImageLoader();
+    	performanceMonitor = new PerformanceMonitor();
+    	performanceMonitor.setImageLoader(imageLoader);
+    	imageLoader.setMonitor(performanceMonitor);
+    	thumbnailStore = new ThumbnailStore(ThumbnailStore.getDefaultDirectory());
+    	imageLoader.setThumbnailStore(thumbnailStore);
+    	metadataIndex = new MetadataIndex(MetadataIndex.getDefaultFile());
+    	imageLoader.setMetadataIndex(metadataIndex);
+    	tileLoader = new TileLoader();
+    	performanceMonitor.start();
+    	imagePrefetcher = new ImagePrefetcher(imageLoader, 8);
+    	slideshowPolicy = new SlideshowPolicy();
+    	slideshowPolicy.setLoop(true);
+    	
     	FXMLLoader loader = new FXMLLoader(getClass().getResource("view/MainPane.fxml"));
         controller = new Controller();
         loader.setController(controller);
@@ -65,16 +142,51 @@ public class Main extends Application {
         stage.show();
        
         this.stage = stage;
-        isShuffleOn = false;
-        imagePlaylist = unshuffledPlaylist = new IndexedImagePlaylist();
+        imagePrefetcher.setThumbnailSize(controller.imageViewCurrent.getFitWidth(), 
+        								 controller.imageViewCurrent.getFitHeight());
+        setPlaylist(new IndexedImagePlaylist());
         rng = new Random(System.currentTimeMillis());
     }
     
+    @Override
+    public void stop() throws Exception {
+    	stopSlideshow();
+    	stopImporting();
+    	stopWatchingFolder();
+    	if(playlistValidator != null)
+    		playlistValidator.cancel();
+    	if(duplicateIndexer != null)
+    		duplicateIndexer.cancel();
+    	if(thumbnailPopulator != null)
+    		thumbnailPopulator.cancel();
+    	if(imageLoader != null)
+    		imageLoader.shutdown();
+    	if(thumbnailStore != null)
+    		thumbnailStore.close();
+    	if(metadataIndex != null){
+    		try{
+    			metadataIndex.save();
+    		}
+    		catch(IOException e){
+    			//Only a cache, it is rebuilt as images are checked again
+    		}
+    	}
+    	if(tileLoader != null)
+    		tileLoader.shutdown();
+    	if(performanceMonitor != null)
+    		performanceMonitor.stop();
+    	super.stop();
+    }
+    
     /*---------------------Image Display Methods---------------------------*/
     
     protected void updateMainImage(){
     	if(!imagePlaylist.isEmpty())
     		controller.displayMainImage(imagePlaylist.get());
+    	
+    	//Whoever moved the playlist, the image now showing gets its full interval
+    	if(slideshow != null)
+    		slideshow.reschedule();
     }
     
     protected void updateThumbnails(){
@@ -96,10 +208,169 @@ public class Main extends Application {
     			controller.displayLastThumbnail(imagePlaylist.getNext(2));
     		}
     	}
+    	
+    	if(playlistBrowser != null)
+    		playlistBrowser.sync();
+    }
+    
+    /**
+     * Call before a navigation handler moves the playlist
+     */
+    protected void beginNavigation(){
+    	navigationStart = System.nanoTime();
+    }
+    
+    /**
+     * Call once the navigation handler has updated the view, records how long
+     * the handler took. Display updates made outside a navigation are not timed.
+     */
+    protected void endNavigation(){
+    	if(navigationStart == 0)
+    		return;
+    	performanceMonitor.record(PerformanceMonitor.Stage.HANDLER, System.nanoTime() - navigationStart);
+    	navigationStart = 0;
     }
     
     //-----------------------Playlist Update Methods---------------------------------------//
     
+    /**
+     * Replaces the active playlist, moving the prefetcher over to the new one
+     * @param playlist
+     */
+    protected void setPlaylist(IndexedImagePlaylist playlist){
+    	stopSlideshow();
+    	stopImporting();
+    	stopWatchingFolder();
+    	if(playlistValidator != null){
+    		playlistValidator.cancel();
+    		playlistValidator = null;
+    		stage.setTitle("PicShuffle");
+    	}
+    	if(duplicateIndexer != null){
+    		duplicateIndexer.cancel();
+    		duplicateIndexer = null;
+    		stage.setTitle("PicShuffle");
+    	}
+    	duplicateIndex = null;
+    	if(imagePlaylist != null)
+    		imagePlaylist.removeNavigationListener(imagePrefetcher);
+    	imageLoader.cancelPrefetches();
+    	
+    	imagePlaylist = playlist;
+    	imagePlaylist.addNavigationListener(imagePrefetcher);
+    	resetSortMenu();
+    	if(playlistBrowser != null)
+    		playlistBrowser.setPlaylist(playlist);
+    	populateThumbnails();
+    }
+    
+    /**
+     * Stores the thumbnail of every image of the playlist in the background,
+     * starting over from the first entry. Thumbnails stored already are skipped.
+     */
+    protected void populateThumbnails(){
+    	if(thumbnailPopulator != null)
+    		thumbnailPopulator.cancel();
+    	
+    	thumbnailPopulator = new ThumbnailPopulator(imagePlaylist, imageLoader,
+    												controller.imageViewCurrent.getFitWidth(),
+    												controller.imageViewCurrent.getFitHeight());
+    	thumbnailPopulator.start();
+    }
+    
+    /**
+     * Opens the thumbnail grid of the whole playlist, scrolled to the current image
+     */
+    protected void showPlaylistBrowser(){
+    	if(browserStage == null){
+    		playlistBrowser = new PlaylistBrowser(imageLoader);
+    		playlistBrowser.setSelectionListener(new PlaylistBrowser.SelectionListener() {
+				@Override
+				public void onImageSelected(int position) {
+					beginNavigation();
+					imagePlaylist.moveTo(position);
+					updateMainImage();
+					updateThumbnails();
+					endNavigation();
+				}
+			});
+    		
+    		browserStage = new Stage();
+    		browserStage.initOwner(stage);
+    		browserStage.setTitle("Playlist");
+    		browserStage.setScene(new Scene(playlistBrowser, 840, 640));
+    	}
+    	
+    	playlistBrowser.setPlaylist(imagePlaylist);
+    	browserStage.show();
+    	browserStage.toFront();
+    	playlistBrowser.showPosition(imagePlaylist.currentIndex());
+    }
+    
+    //-----------------------Slideshow Methods---------------------------------------//
+    
+    /**
+     * Plays the playlist from the current image. Frames are decoded ahead of
+     * their deadline on the slideshow thread, while the playlist itself is
+     * only ever touched on the application thread.
+     */
+    protected void startSlideshow(){
+    	if(slideshow != null || imagePlaylist.isEmpty())
+    		return;
+    	
+    	Executor fxExecutor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				if(Platform.isFxApplicationThread())
+					command.run();
+				else
+					Platform.runLater(command);
+			}
+		};
+		
+		SlideshowEngine.FrameDecoder<Image> decoder = new SlideshowEngine.FrameDecoder<Image>() {
+			@Override
+			public Image decode(String imagePath) throws Exception {
+				return imageLoader.loadNow(imagePath);
+			}
+		};
+		
+    	slideshow = new SlideshowEngine<Image>(imagePlaylist, decoder, slideshowPolicy, fxExecutor);
+    	slideshow.addSink(new SlideshowEngine.FrameSink<Image>() {
+			@Override
+			public void showFrame(int position, String imagePath, final Image frame) {
+				Platform.runLater(new Runnable() {
+					@Override
+					public void run() {
+						controller.displaySlideshowFrame(frame);
+					}
+				});
+			}
+			
+			@Override
+			public void showError(int position, String imagePath, Exception e) {
+				//Unreadable images are skipped, a dialog every few seconds would stop the show
+			}
+		});
+    	performanceMonitor.setSlideshowEngine(slideshow);
+    	slideshow.start();
+    }
+    
+    protected void stopSlideshow(){
+    	if(slideshow == null)
+    		return;
+    	
+    	slideshow.stop();
+    	slideshow = null;
+    }
+    
+    protected boolean isSlideshowRunning(){
+    	//The engine stops by itself at the end of a playlist that does not loop
+    	if(slideshow != null && !slideshow.isRunning())
+    		slideshow = null;
+    	return slideshow != null;
+    }
+    
     protected void addToPlaylist(List<File> files){
     	try{
     		imagePlaylist.last();
@@ -121,10 +392,341 @@ public class Main extends Application {
     	}
     }
     
+    /**
+     * Checks every entry of the playlist in the background, flagging the ones
+     * that are missing or unreadable so navigation skips them
+     */
+    protected void validatePlaylist(){
+    	if(playlistValidator != null)
+    		playlistValidator.cancel();
+    	
+    	playlistValidator = new PlaylistValidator(imagePlaylist, new PlaylistValidator.ValidationListener() {
+			@Override
+			public void onProgress(int checked, int total, int invalid) {
+				stage.setTitle(String.format("PicShuffle - Checking playlist %d / %d", checked, total));
+				
+				//Move off the image on screen if it turned out to be broken
+				if(imagePlaylist.isInvalid(imagePlaylist.currentIndex()) && 
+						imagePlaylist.getInvalidCount() < imagePlaylist.size()){
+					imagePlaylist.next();
+					updateMainImage();
+					updateThumbnails();
+				}
+			}
+			
+			@Override
+			public void onValidationFinished(int checked, int invalid, boolean cancelled) {
+				if(cancelled)
+					return;
+				
+				stage.setTitle("PicShuffle");
+				playlistValidator = null;
+				updateThumbnails();
+				if(sortPending){
+					sortPending = false;
+					applySort();
+				}
+				if(invalid > 0){
+					AppUtils.showErrorDialog(String.format(
+							"%d images in the playlist are missing, cannot be read or are not in a supported format, " +
+							"they will be skipped.", 
+							invalid));
+				}
+			}
+		}, metadataIndex);
+    	playlistValidator.start();
+    }
+    
+    /**
+     * Turns the weighted shuffle on or off, for the playlist now and for every
+     * slideshow started from here on
+     */
+    protected void setWeightedShuffle(boolean weighted){
+    	if(weighted){
+    		slideshowPolicy.setShuffleMode(SlideshowPolicy.ShuffleMode.WEIGHTED);
+    		imagePlaylist.shuffleWeighted(rng, WeightedShuffleOrder.DEFAULT_NO_REPEAT_WINDOW);
+    		resetSortMenu();
+    	}
+    	else{
+    		slideshowPolicy.setShuffleMode(SlideshowPolicy.ShuffleMode.OFF);
+    		if(imagePlaylist.isShuffledByWeight())
+    			imagePlaylist.unshuffle();
+    	}
+    	updateMainImage();
+    	updateThumbnails();
+    }
+    
+    /**
+     * Orders the playlist by a metadata column and shows only the entries the
+     * filter accepts. Metadata comes from the index without touching the
+     * files; if some entries are not in it yet the playlist is checked first,
+     * which reads them, and sorted when the check finishes.
+     * @param key Column to sort by, or null for list order
+     * @param filter Entries to show, or null for all of them
+     */
+    protected void sortPlaylist(PlaylistSort.Key key, PlaylistFilter filter){
+    	sortKey = key;
+    	sortFilter = filter;
+    	sortPending = false;
+    	resetWeightedShuffle();
+    	if(key == null && filter == null){
+    		imagePlaylist.unshuffle();
+    		updateMainImage();
+    		updateThumbnails();
+    		return;
+    	}
+    	
+    	if(imagePlaylist.fillMetadata(metadataIndex) > 0){
+    		sortPending = true;
+    		if(playlistValidator == null)
+    			validatePlaylist();
+    		return;
+    	}
+    	applySort();
+    }
+    
+    private void applySort(){
+    	imagePlaylist.fillMetadata(metadataIndex);
+    	if(imagePlaylist.sortBy(sortKey, false, sortFilter) == 0)
+    		AppUtils.showDialog("Sort", "No images in the playlist match the filter.");
+    	updateMainImage();
+    	updateThumbnails();
+    }
+    
+    /**
+     * Puts the Sort menu back on list order and all images, for when the
+     * playlist order is replaced by something other than a sort
+     */
+    private void resetSortMenu(){
+    	sortKey = null;
+    	sortFilter = null;
+    	sortPending = false;
+    	controller.sortKeyGroup.selectToggle(controller.sortKeyGroup.getToggles().get(0));
+    	controller.sortFilterGroup.selectToggle(controller.sortFilterGroup.getToggles().get(0));
+    }
+    
+    /**
+     * Unchecks Weighted Shuffle, for when the playlist order is replaced by
+     * something else, so slideshows stop drawing by weight as well
+     */
+    private void resetWeightedShuffle(){
+    	slideshowPolicy.setShuffleMode(SlideshowPolicy.ShuffleMode.OFF);
+    	controller.menuItemWeightedShuffle.setSelected(false);
+    }
+    
+    /**
+     * Marks or unmarks the image on screen as a favorite, which the weighted
+     * shuffle shows more often
+     */
+    protected void toggleFavorite(){
+    	if(imagePlaylist.isEmpty())
+    		return;
+    	
+    	int position = imagePlaylist.currentIndex();
+    	boolean favorite = !imagePlaylist.isFavorite(position);
+    	imagePlaylist.setFavorite(position, favorite);
+    	stage.setTitle(favorite ? "PicShuffle - Favorite" : "PicShuffle");
+    }
+    
+    /**
+     * Finds near duplicate images in the playlist and either skips or removes
+     * every copy but the first. The playlist is hashed in the background first
+     * unless it has not changed since the last search.
+     * @param remove true to take the copies out of the playlist, false to only skip them
+     */
+    protected void collapseDuplicates(final boolean remove){
+    	if(duplicateIndex != null && duplicateIndex.isCurrent(imagePlaylist)){
+    		applyDuplicates(duplicateIndex, remove);
+    		return;
+    	}
+    	if(duplicateIndexer != null)
+    		duplicateIndexer.cancel();
+    	
+    	duplicateIndexer = new DuplicateIndexer(imagePlaylist, new DuplicateIndexer.IndexListener() {
+			@Override
+			public void onProgress(int done, int total) {
+				stage.setTitle(String.format("PicShuffle - Looking for duplicates %d / %d", done, total));
+			}
+			
+			@Override
+			public void onIndexFinished(DuplicateIndex index, boolean cancelled) {
+				//A newer search or another playlist took over
+				if(duplicateIndexer == null || duplicateIndexer.getIndex() != index)
+					return;
+				
+				duplicateIndexer = null;
+				stage.setTitle("PicShuffle");
+				if(cancelled || !index.isCurrent(imagePlaylist)){
+					AppUtils.showErrorDialog(
+							"The playlist changed while it was being searched for duplicates. Please try again.");
+					return;
+				}
+				duplicateIndex = index;
+				applyDuplicates(index, remove);
+			}
+		});
+    	duplicateIndexer.start();
+    }
+    
+    /**
+     * Keeps the first image of every group of duplicates and skips or removes the rest
+     */
+    protected void applyDuplicates(DuplicateIndex index, boolean remove){
+    	List<int[]> groups = index.findDuplicateGroups(DuplicateIndex.DEFAULT_MAX_DISTANCE);
+    	int copies = 0;
+    	for(int[] group : groups)
+    		copies += group.length - 1;
+    	
+    	if(copies == 0){
+    		AppUtils.showDialog("Duplicates", "No duplicate images were found in the playlist.");
+    		return;
+    	}
+    	
+    	//Groups hold indexes in the underlying list, so copies hidden by a filter are caught too
+    	if(remove){
+    		int[] indexes = new int[copies];
+    		int count = 0;
+    		for(int[] group : groups){
+    			for(int i = 1; i < group.length; i++)
+    				indexes[count++] = group[i];
+    		}
+    		
+    		imagePlaylist.removeEntriesAt(indexes);
+    		duplicateIndex = null;
+    	}
+    	else{
+    		for(int[] group : groups){
+    			for(int i = 1; i < group.length; i++)
+    				imagePlaylist.markEntryInvalid(group[i]);
+    		}
+    	}
+    	
+    	updateMainImage();
+    	updateThumbnails();
+    	AppUtils.showDialog("Duplicates", String.format(
+    			"%d duplicate images were %s in %d groups.", 
+    			copies, remove ? "removed" : "found and will be skipped", groups.size()));
+    }
+    
+    /**
+     * Walks the folder in the background and appends every image found to the
+     * playlist as it arrives, replacing any import still in progress
+     * @param folder
+     */
+    protected void importFolder(File folder){
+    	importFolder(folder, false);
+    }
+    
+    /**
+     * @param folder
+     * @param watch true to keep the playlist in sync with the folder once it is imported
+     */
+    protected void importFolder(final File folder, final boolean watch){
+    	stopImporting();
+    	
+    	//What the watch starts from, so it only has to look for differences
+    	final List<String> imported = watch ? new ArrayList<String>() : null;
+    	folderImporter = new FolderImporter(folder.toPath(), new FolderImporter.ImportListener() {
+			@Override
+			public void onImagesFound(List<String> imagePaths) {
+				if(imported != null)
+					imported.addAll(imagePaths);
+				boolean wasEmpty = imagePlaylist.isEmpty();
+				int previousSize = imagePlaylist.size();
+				imagePlaylist.addAll(imagePaths);
+				if(playlistBrowser != null)
+					playlistBrowser.sync();
+				
+				if(wasEmpty){
+					updateMainImage();
+					updateThumbnails();
+				}
+				else if(imagePlaylist.currentIndex() + 2 >= previousSize){
+					//The new images are close enough to show up in the thumbnail strip
+					updateThumbnails();
+				}
+			}
+			
+			@Override
+			public void onImportFinished(int imageCount, int failedDirectories, boolean cancelled) {
+				if(cancelled)
+					return;
+				
+				//The images arrived after the playlist was set, store them now
+				populateThumbnails();
+				if(watch){
+					//Images copied in since the walk show up as differences from the import
+					watchFolder(folder, imported);
+				}
+				if(imageCount == 0 && !watch){
+					AppUtils.showErrorDialog("No images were found in the selected folder.");
+				}
+				else if(failedDirectories > 0){
+					AppUtils.showErrorDialog(String.format(
+							"%d folders could not be read, the images inside them were not imported.", 
+							failedDirectories));
+				}
+			}
+		});
+    	folderImporter.start();
+    }
+    
+    /**
+     * Applies images added, deleted and renamed in a folder to the playlist as
+     * it happens, until the playlist is replaced or the watch is stopped
+     * @param folder
+     * @param knownPaths The images of the folder already in the playlist
+     */
+    protected void watchFolder(File folder, List<String> knownPaths){
+    	stopWatchingFolder();
+    	
+    	folderWatcher = new FolderWatcher(imagePlaylist, folder.toPath(), knownPaths, new FolderWatcher.WatchListener() {
+			@Override
+			public void onPlaylistChanged(int changed) {
+				if(playlistBrowser != null)
+					playlistBrowser.sync();
+				
+				//Only reload the main image if the one showing was removed
+				if(!imagePlaylist.isEmpty() && !imagePlaylist.get().equals(controller.mainImagePath))
+					updateMainImage();
+				updateThumbnails();
+			}
+			
+			@Override
+			public void onWatchStopped(boolean failed) {
+				if(failed){
+					folderWatcher = null;
+					AppUtils.showErrorDialog("The folder cannot be watched for changes.");
+				}
+			}
+		});
+    	folderWatcher.start();
+    }
+    
+    /**
+     * Cancels a folder import still running, so it stops adding to the playlist
+     */
+    protected void stopImporting(){
+    	if(folderImporter != null){
+    		folderImporter.cancel();
+    		folderImporter = null;
+    	}
+    }
+    
+    protected void stopWatchingFolder(){
+    	if(folderWatcher != null){
+    		folderWatcher.cancel();
+    		folderWatcher = null;
+    	}
+    }
+    
     protected void overwritePlaylist(File... files){
+    	stopImporting();
+    	stopWatchingFolder();
     	imagePlaylist.clear();
     	try{
     		boolean flag = imagePlaylist.addAllFiles(files);
+    		populateThumbnails();
     		if(!flag){
     			AppUtils.showErrorDialog(
     					"At least one file you selected was not " +
@@ -140,9 +742,12 @@ public class Main extends Application {
     }
     
     protected void overwritePlaylist(List<File> files){
+    	stopImporting();
+    	stopWatchingFolder();
     	imagePlaylist.clear();
     	try{
     		boolean flag = imagePlaylist.addAllFiles(files);
+    		populateThumbnails();
     		if(!flag){
     			AppUtils.showErrorDialog(
     					"At least one file you selected was not " +
@@ -162,9 +767,21 @@ public class Main extends Application {
     	@FXML
     	private Button buttonShuffle;
     	
+    	@FXML
+    	ToggleGroup sortKeyGroup;
+    	@FXML
+    	ToggleGroup sortFilterGroup;
+    	@FXML
+    	CheckMenuItem menuItemWeightedShuffle;
+    	
     	@FXML
     	ImageView imageView;
     	@FXML
+    	StackPane centerPane;
+    	
+    	/* Takes the place of imageView for images too large to decode whole */
+    	TiledImageView tiledImageView;
+    	@FXML
     	ImageView imageViewFirst;
     	@FXML
     	ImageView imageViewLast;
@@ -178,6 +795,10 @@ public class Main extends Application {
     	private double sceneX, sceneY, translateX, translateY;
     	private DoubleProperty zoomProperty = new SimpleDoubleProperty(200);
     	
+    	/* Image in the main view, and whether its full resolution has been asked for */
+    	private String mainImagePath;
+    	private boolean mainImageFull;
+    	
     	@FXML
         public void initialize() {
     		/**
@@ -188,66 +809,272 @@ public class Main extends Application {
                 public void invalidated(Observable arg0) {
                     imageView.setFitWidth(zoomProperty.get() * 4);
                     imageView.setFitHeight(zoomProperty.get() * 3);
+                    imagePrefetcher.setPreviewSize(imageView.getFitWidth(), imageView.getFitHeight());
+                    ensureFullResolution();
                 }
             });
+    		//Fit the view from the start, so previews have a size to be decoded at
+    		imageView.setFitWidth(zoomProperty.get() * 4);
+            imageView.setFitHeight(zoomProperty.get() * 3);
+            imagePrefetcher.setPreviewSize(imageView.getFitWidth(), imageView.getFitHeight());
 
             imageView.addEventFilter(ScrollEvent.ANY, onImageScrollHandler);
             imageView.setOnMousePressed(imageOnMousePressedHandler);
             imageView.setOnMouseDragged(imageOnMouseDraggedHandler);
+            
+            tiledImageView = new TiledImageView(tileLoader);
+            tiledImageView.setVisible(false);
+            tiledImageView.addEventFilter(ScrollEvent.ANY, onImageScrollHandler);
+            tiledImageView.setOnMousePressed(imageOnMousePressedHandler);
+            tiledImageView.setOnMouseDragged(imageOnMouseDraggedHandler);
+            centerPane.getChildren().add(tiledImageView);
     	}
     	
     	/*--------------------ImageView Display Methods--------------------*/
 
+    	private Image stockImage, stockThumbnail;
+    	
         protected void displayImage(ImageView imageView, String imagePath){
-        	boolean isImageFile = AppUtils.isImageFile(imagePath);
-        	if(imageView != null && imagePath != null && isImageFile){
-        		imageView.setImage(new Image(imagePath));
+        	if(imageView != null && imagePath != null && AppUtils.isImageFile(imagePath)){
+        		//Show the stock image right away, the real one is decoded in the background
+        		imageView.setImage(getPlaceholder(imageView));
+        		imageLoader.load(imageView, imagePath, getDisplayCallback(imageView));
         	}
         	else{
-        		AppUtils.showErrorDialog(
-    					"The application has experienced an issue while " +
-    					"trying to display one of the selected images."
-    			);
+        		showDisplayError();
+        	}
+        }
+        
+        /**
+         * Thumbnails are decoded straight to the size of their ImageView 
+         * instead of decoding the full image and letting the view scale it
+         */
+        protected void displayThumbnail(ImageView imageView, String imagePath){
+        	if(imageView != null && imagePath != null && AppUtils.isImageFile(imagePath)){
+        		imageView.setImage(getPlaceholder(imageView));
+        		imageLoader.loadThumbnail(imageView, imagePath, 
+        				imageView.getFitWidth(), imageView.getFitHeight(), 
+        				getDisplayCallback(imageView));
         	}
+        	else{
+        		showDisplayError();
+        	}
+        }
+        
+        protected ImageLoader.ImageCallback getDisplayCallback(final ImageView imageView){
+        	return new ImageLoader.ImageCallback() {
+    			@Override
+    			public void onImageLoaded(Image image) {
+    				imageView.setImage(image);
+    			}
+    			
+    			@Override
+    			public void onImageError(String imagePath) {
+    				showDisplayError();
+    			}
+    		};
+        }
+        
+        protected void showDisplayError(){
+        	AppUtils.showErrorDialog(
+					"The application has experienced an issue while " +
+					"trying to display one of the selected images."
+			);
         }
         
+        protected Image getPlaceholder(ImageView view){
+        	if(view == imageView){
+        		if(stockImage == null)
+        			stockImage = new Image(getClass().getResource(RES_STOCK_IMAGE).toExternalForm());
+        		return stockImage;
+        	}
+        	else{
+        		if(stockThumbnail == null)
+        			stockThumbnail = new Image(getClass().getResource(RES_STOCK_THUMBNAIL).toExternalForm());
+        		return stockThumbnail;
+        	}
+        }
+        
+        /**
+         * Shows a preview decoded to the size of the view first. The full
+         * resolution image is only decoded once zooming makes the preview too small.
+         */
         protected void displayMainImage(String imagePath){
-        	displayImage(imageView, imagePath);
+        	if(imagePath != null && AppUtils.isImageFile(imagePath)){
+        		hideTiledImage();
+        		mainImagePath = imagePath;
+        		mainImageFull = false;
+        		imageView.setImage(getPlaceholder(imageView));
+        		imageLoader.loadPreview(imageView, imagePath, imageView.getFitWidth(), imageView.getFitHeight(), 
+        								getMainImageCallback(navigationStart != 0 ? navigationStart : System.nanoTime()));
+        	}
+        	else{
+        		showDisplayError();
+        	}
+        }
+        
+        /**
+         * Swaps the preview in the main view for the full image if the view 
+         * now shows it larger than the preview's own pixel size
+         */
+        protected void ensureFullResolution(){
+        	Image image = imageView.getImage();
+        	if(mainImagePath == null || mainImageFull || image == null || image == stockImage)
+        		return;
+        	
+        	//Small images are decoded whole from the start, there is nothing sharper to load
+        	if(ImageLoader.isFullResolution(image)){
+        		mainImageFull = true;
+        		return;
+        	}
+        	
+        	double scale = Math.min(imageView.getFitWidth() / image.getWidth(), 
+        							imageView.getFitHeight() / image.getHeight());
+        	if(scale <= 1)
+        		return;
+        	
+        	mainImageFull = true;
+        	final String imagePath = mainImagePath;
+        	
+        	//Images this large are never decoded whole, only the tiles on screen are.
+        	//The header is read in the background, the preview stays up meanwhile.
+        	imageLoader.openTiled(imagePath, new ImageLoader.TiledImageCallback() {
+    			@Override
+    			public void onTiledImageOpened(TiledImage tiled) {
+    				if(!imagePath.equals(mainImagePath) || !mainImageFull)
+    					return;
+    				
+    				if(tiled != null && tiled.needsTiling())
+    					showTiledImage(tiled);
+    				else
+    					loadFullImage(imagePath);
+    			}
+    		});
+        }
+        
+        protected void loadFullImage(final String imagePath){
+        	imageLoader.load(imageView, imagePath, new ImageLoader.ImageCallback() {
+    			@Override
+    			public void onImageLoaded(Image image) {
+    				if(imagePath.equals(mainImagePath))
+    					imageView.setImage(image);
+    			}
+    			
+    			@Override
+    			public void onImageError(String imagePath) {
+    				//The preview stays up, it is better than nothing
+    			}
+    		});
+        }
+        
+        /**
+         * Same as the display callback, but also records how long the image took to
+         * reach the view and then the screen
+         * @param start Time the navigation that requested the image started
+         */
+        protected ImageLoader.ImageCallback getMainImageCallback(final long start){
+        	return new ImageLoader.ImageCallback() {
+    			@Override
+    			public void onImageLoaded(Image image) {
+    				final long shown = System.nanoTime();
+    				imageView.setImage(image);
+    				performanceMonitor.record(PerformanceMonitor.Stage.IMAGE_READY, shown - start);
+    				ensureFullResolution();
+    				
+    				//The image is on screen once the next pulse has run
+    				new AnimationTimer() {
+						@Override
+						public void handle(long now) {
+							stop();
+							long rendered = System.nanoTime();
+							performanceMonitor.record(PerformanceMonitor.Stage.PULSE, rendered - shown);
+							performanceMonitor.record(PerformanceMonitor.Stage.NAVIGATION_TO_DISPLAY, 
+														rendered - start);
+						}
+					}.start();
+    			}
+    			
+    			@Override
+    			public void onImageError(String imagePath) {
+    				showDisplayError();
+    			}
+    		};
+        }
+        
+        /**
+         * Shows a frame that the slideshow has already decoded and moves the
+         * thumbnail strip along with it
+         */
+        protected void displaySlideshowFrame(Image frame){
+        	beginNavigation();
+        	imageLoader.cancel(imageView);
+        	hideTiledImage();
+        	mainImagePath = null;
+        	imageView.setImage(frame);
+        	updateThumbnails();
+        	endNavigation();
+        }
+        
+        /**
+         * Replaces the preview with the tiled view, keeping the image where it was on screen
+         */
+        protected void showTiledImage(TiledImage tiled){
+        	double scale = Math.min(imageView.getFitWidth() / tiled.getWidth(), 
+        							imageView.getFitHeight() / tiled.getHeight());
+        	double centerX = tiled.getWidth() / 2.0 - imageView.getTranslateX() / scale;
+        	double centerY = tiled.getHeight() / 2.0 - imageView.getTranslateY() / scale;
+        	
+        	imageView.setVisible(false);
+        	tiledImageView.setVisible(true);
+        	tiledImageView.setImage(tiled, scale, centerX, centerY);
+        }
+        
+        protected void hideTiledImage(){
+        	if(!tiledImageView.isVisible())
+        		return;
+        	
+        	tiledImageView.setImage(null);
+        	tiledImageView.setVisible(false);
+        	imageView.setVisible(true);
         }
         
         protected void displayCurrentThumbnail(String imagePath){
-        	displayImage(imageViewCurrent, imagePath);
+        	displayThumbnail(imageViewCurrent, imagePath);
         }
         
         protected void displayPreviousThumbnail(String imagePath){
-        	displayImage(imageViewPrevious, imagePath);
+        	displayThumbnail(imageViewPrevious, imagePath);
         }
         
         protected void displayNextThumbnail(String imagePath){
-        	displayImage(imageViewNext, imagePath);
+        	displayThumbnail(imageViewNext, imagePath);
         }
         
         protected void displayFirstThumbnail(String imagePath){
-        	displayImage(imageViewFirst, imagePath);
+        	displayThumbnail(imageViewFirst, imagePath);
         }
         
         protected void displayLastThumbnail(String imagePath){
-        	displayImage(imageViewLast, imagePath);
+        	displayThumbnail(imageViewLast, imagePath);
         }
     	
     	/*-------------------------Button Events-------------------------------*/
         
         @FXML
         protected void handleShuffleButton(ActionEvent event){
-        	if(isShuffleOn){
-        		isShuffleOn = false;
-        		imagePlaylist = unshuffledPlaylist;
+        	//Shuffling only permutes an index view, so turning it off is instant.
+        	//A sorted or weighted order is replaced by a shuffle rather than undone.
+        	if(imagePlaylist.isShuffledRandomly()){
+        		imagePlaylist.unshuffle();
+        	}
+        	else if(imagePlaylist.size() > LAZY_SHUFFLE_THRESHOLD){
+        		imagePlaylist.shuffleLazily(rng);
         	}
         	else{
-        		isShuffleOn = true;
-        		unshuffledPlaylist = imagePlaylist;
-        		imagePlaylist.shuffle(rng);
+        		imagePlaylist.shuffleIndices(rng);
         	}
+        	resetSortMenu();
+        	resetWeightedShuffle();
         	
         	updateMainImage();
         	updateThumbnails();
@@ -255,68 +1082,84 @@ public class Main extends Application {
         
         @FXML
         protected void handlePreviousButton(ActionEvent event){
+        	beginNavigation();
         	imagePlaylist.prev();
         	
         	updateMainImage();
         	updateThumbnails();
+        	endNavigation();
         }
         
         @FXML
         protected void handleNextButton(ActionEvent event){
+        	beginNavigation();
         	imagePlaylist.next();
         	
         	updateMainImage();
         	updateThumbnails();
+        	endNavigation();
         }
         
         @FXML
         protected void handleSkipBackButton(ActionEvent event){
+        	beginNavigation();
         	imagePlaylist.back(5);
         	
         	updateMainImage();
         	updateThumbnails();
+        	endNavigation();
         }
         
         @FXML
         protected void handleSkipForwardButton(ActionEvent event){
+        	beginNavigation();
         	imagePlaylist.forward(5);
         	
         	updateMainImage();
         	updateThumbnails();
+        	endNavigation();
         }
         
         /*-------------------------Image Events-------------------------------*/
         
         @FXML
         protected void handleFirstImageClick(ActionEvent event){
+        	beginNavigation();
         	imagePlaylist.back(2);
         	
         	updateMainImage();
         	updateThumbnails();
+        	endNavigation();
         }
         
         @FXML
         protected void handleLastImageClick(ActionEvent event){
+        	beginNavigation();
         	imagePlaylist.forward(2);
         	
         	updateMainImage();
         	updateThumbnails();
+        	endNavigation();
         }
         
         @FXML
         protected void handlePrevImageClick(ActionEvent event){
+        	beginNavigation();
         	imagePlaylist.prev();
         	
         	updateMainImage();
         	updateThumbnails();
+        	endNavigation();
         }
         
         @FXML
         protected void handleNextImageClick(ActionEvent event){
+        	beginNavigation();
         	imagePlaylist.next();
         	
         	updateMainImage();
         	updateThumbnails();
+        	endNavigation();
         }
         
         
@@ -351,10 +1194,12 @@ public class Main extends Application {
             	if(!AppUtils.isImageFile(file)){
             		AppUtils.showErrorDialog("File specified is not of a valid type.\n" +
             								 "Please select a file with one of the following " +
-            								 "types: .jpg, .jpeg, .png, .gif");
+            								 "types: .jpg, .jpeg, .png, .gif, .bmp");
             		return;
             	}
             	
+           		stopImporting();
+           		stopWatchingFolder();
            		imagePlaylist.clear();
             	boolean flag = imagePlaylist.add(file);
             	if(!flag){
@@ -383,6 +1228,8 @@ public class Main extends Application {
         	//Load the chosen images into the application as a new playlist
         	List<File> files = fileDialog.showOpenMultipleDialog(stage);
         	if (files != null && !files.isEmpty()) {
+            	stopImporting();
+            	stopWatchingFolder();
             	imagePlaylist.clear();
             	overwritePlaylist(files);
           
@@ -402,32 +1249,12 @@ public class Main extends Application {
         		try{
         			String filePath = file.getAbsolutePath();
         			ImagePlaylist obj = AppUtils.readImagePlaylist(filePath);
-        			imagePlaylist = new IndexedImagePlaylist(obj.size());
-        			
-        			int size = obj.size();
-        			boolean tempFlag, flag = true;
-        			String path;
-        			for(int i = 0; i < size; i++){
-        				path = obj.get(i);
-        				/*
-        				tempFlag = AppUtils.fileExists(path);
-        				if(tempFlag)
-        					imagePlaylist.add(path);
-        				else
-        					flag = false;
-        					*/
-        				imagePlaylist.add(path);
-        			}
+        			//Wrap the opened playlist as is, its entries are read from the file on demand
+        			setPlaylist(new IndexedImagePlaylist(obj));
         			
-        			if(!flag){
-        				AppUtils.showErrorDialog(
-            					"At least one file found in the playlist could " +
-        						"not be found in the file system, and will not be displayed."
-            			);
-        			}
-            	
         			updateMainImage();
         			updateThumbnails();
+        			validatePlaylist();
         		}
         		catch(ClassNotFoundException cnfe){
         			String message = cnfe.getMessage();
@@ -476,6 +1303,88 @@ public class Main extends Application {
         	}
         }
         
+        @FXML
+        protected void handleMenuItemImportFolder(ActionEvent event){
+        	DirectoryChooser folderDialog = new DirectoryChooser();
+        	folderDialog.setTitle("Import Folder");
+        	
+        	File folder = folderDialog.showDialog(stage);
+        	if(folder != null){
+        		importFolder(folder);
+        	}
+        }
+        
+        @FXML
+        protected void handleMenuItemWatchFolder(ActionEvent event){
+        	DirectoryChooser folderDialog = new DirectoryChooser();
+        	folderDialog.setTitle("Watch Folder");
+        	
+        	File folder = folderDialog.showDialog(stage);
+        	if(folder != null){
+        		importFolder(folder, true);
+        	}
+        }
+        
+        @FXML
+        protected void handleMenuItemSlideshow(ActionEvent event){
+        	if(isSlideshowRunning())
+        		stopSlideshow();
+        	else
+        		startSlideshow();
+        }
+        
+        @FXML
+        protected void handleMenuItemSlideshowInterval(ActionEvent event){
+        	Object seconds = ((MenuItem) event.getSource()).getUserData();
+        	if(seconds != null)
+        		slideshowPolicy.setIntervalMillis(Long.parseLong(seconds.toString()) * 1000);
+        }
+        
+        @FXML
+        protected void handleMenuItemBrowsePlaylist(ActionEvent event){
+        	showPlaylistBrowser();
+        }
+        
+        @FXML
+        protected void handleMenuItemFavorite(ActionEvent event){
+        	toggleFavorite();
+        }
+        
+        @FXML
+        protected void handleMenuItemWeightedShuffle(ActionEvent event){
+        	CheckMenuItem item = (CheckMenuItem) event.getSource();
+        	setWeightedShuffle(item.isSelected());
+        }
+        
+        @FXML
+        protected void handleMenuItemSort(ActionEvent event){
+        	Object key = ((MenuItem) event.getSource()).getUserData();
+        	sortPlaylist(key != null ? PlaylistSort.Key.valueOf(key.toString()) : null, sortFilter);
+        }
+        
+        @FXML
+        protected void handleMenuItemFilter(ActionEvent event){
+        	Object filter = ((MenuItem) event.getSource()).getUserData();
+        	PlaylistFilter selected = null;
+        	if("LANDSCAPE".equals(filter))
+        		selected = PlaylistFilter.LANDSCAPE;
+        	else if("PORTRAIT".equals(filter))
+        		selected = PlaylistFilter.PORTRAIT;
+        	else if(filter != null && filter.toString().endsWith("MP"))
+        		selected = PlaylistFilter.largerThan(Double.parseDouble(filter.toString().replace("MP", "")));
+        	sortPlaylist(sortKey, selected);
+        }
+        
+        @FXML
+        protected void handleMenuItemSkipDuplicates(ActionEvent event){
+        	collapseDuplicates(false);
+        }
+        
+        @FXML
+        protected void handleMenuItemRemoveDuplicates(ActionEvent event){
+        	collapseDuplicates(true);
+        }
+        
         /*----------------------------------Event Listeners------------------------------------*/
         
         EventHandler<KeyEvent> onKeyPressHandler = new EventHandler<KeyEvent>() {
@@ -488,6 +1397,12 @@ public class Main extends Application {
                     case RIGHT: 
                     	handleNextButton(null); 
                     	break;
+                    case F5:
+                    	handleMenuItemSlideshow(null);
+                    	break;
+                    case F:
+                    	toggleFavorite();
+                    	break;
                     default:
                     	break;
                 }
@@ -501,6 +1416,12 @@ public class Main extends Application {
         EventHandler<ScrollEvent> onImageScrollHandler = new EventHandler<ScrollEvent>() {
             @Override
             public void handle(ScrollEvent event) {
+            	if (tiledImageView.isVisible()) {
+            		if (event.getDeltaY() != 0)
+            			tiledImageView.zoom(event.getDeltaY() > 0 ? 1.1 : 1 / 1.1, event.getX(), event.getY());
+            		return;
+            	}
+            	
                 if (event.getDeltaY() > 0) {
                     zoomProperty.set(zoomProperty.get() * 1.1);
                 } else if (event.getDeltaY() < 0) {
@@ -534,6 +1455,15 @@ public class Main extends Application {
     	        public void handle(MouseEvent t) {
     	            double offsetX = t.getSceneX() - sceneX;
     	            double offsetY = t.getSceneY() - sceneY;
+    	            
+    	            //The tiled view moves its own viewport, by the distance since the last event
+    	            if (tiledImageView.isVisible()) {
+    	            	tiledImageView.pan(offsetX, offsetY);
+    	            	sceneX = t.getSceneX();
+    	            	sceneY = t.getSceneY();
+    	            	return;
+    	            }
+
     	            double newTranslateX = translateX + offsetX;
     	            double newTranslateY = translateY + offsetY;
     	            
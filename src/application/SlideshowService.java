@@ -0,0 +1,102 @@
+package application;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.logging.Logger;
+
+import application.model.AppUtils;
+import application.model.BufferedImageDecoder;
+import application.model.ImagePlaylist;
+import application.model.IndexedImagePlaylist;
+import application.model.SlideshowEngine;
+import application.model.SlideshowPolicy;
+
+/**
+ * 
+ * @author John Riley
+ * Runs a slideshow without a window, for background services and soak tests
+ * on machines without a display.
+ * 
+ * Usage: SlideshowService playlist.sip [--interval millis] [--shuffle | --lazy-shuffle]
+ *                         [--once] [--size pixels] [--duration seconds]
+ */
+public class SlideshowService {
+	
+	private static final Logger LOGGER = Logger.getLogger(SlideshowService.class.getName());
+	
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1){
+			System.err.println("Usage: SlideshowService playlist.sip [--interval millis] " +
+							   "[--shuffle | --lazy-shuffle] [--once] [--size pixels] [--duration seconds]");
+			System.exit(1);
+		}
+		
+		SlideshowPolicy policy = new SlideshowPolicy();
+		int maxSize = 0;
+		long durationSeconds = 0;
+		for(int i = 1; i < args.length; i++){
+			switch(args[i]){
+				case "--interval":
+					policy.setIntervalMillis(Long.parseLong(args[++i]));
+					break;
+				case "--shuffle":
+					policy.setShuffleMode(SlideshowPolicy.ShuffleMode.SHUFFLE);
+					break;
+				case "--lazy-shuffle":
+					policy.setShuffleMode(SlideshowPolicy.ShuffleMode.LAZY);
+					break;
+				case "--once":
+					policy.setLoop(false);
+					break;
+				case "--size":
+					maxSize = Integer.parseInt(args[++i]);
+					break;
+				case "--duration":
+					durationSeconds = Long.parseLong(args[++i]);
+					break;
+				default:
+					System.err.println("Unknown option: " + args[i]);
+					System.exit(1);
+			}
+		}
+		
+		ImagePlaylist opened = AppUtils.readImagePlaylist(new File(args[0]).getAbsolutePath());
+		IndexedImagePlaylist playlist = new IndexedImagePlaylist(opened);
+		if(playlist.isEmpty()){
+			System.err.println("The playlist is empty");
+			System.exit(1);
+		}
+		
+		final SlideshowEngine<BufferedImage> engine = new SlideshowEngine<BufferedImage>(
+				playlist, new BufferedImageDecoder(maxSize), policy, null);
+		engine.addSink(new LoggingSink());
+		engine.start();
+		
+		long deadline = durationSeconds > 0 ? System.currentTimeMillis() + durationSeconds * 1000 : Long.MAX_VALUE;
+		while(engine.isRunning() && System.currentTimeMillis() < deadline)
+			Thread.sleep(200);
+		engine.stop();
+		
+		LOGGER.info(String.format("Shown %d frames, %d failed, decode %s", 
+								  engine.getFramesShown(), engine.getFramesFailed(), 
+								  engine.getDecodeHistogram()));
+		LOGGER.info(String.format("Deadlines met %d, missed %d, lateness %s", 
+								  engine.getDeadlinesMet(), engine.getDeadlinesMissed(), 
+								  engine.getLatenessHistogram()));
+	}
+	
+	/**
+	 * Logs every frame instead of drawing it
+	 */
+	static class LoggingSink implements SlideshowEngine.FrameSink<BufferedImage> {
+		@Override
+		public void showFrame(int position, String imagePath, BufferedImage frame) {
+			LOGGER.info(String.format("#%d %dx%d %s", position, frame.getWidth(), frame.getHeight(), imagePath));
+		}
+		
+		@Override
+		public void showError(int position, String imagePath, Exception e) {
+			LOGGER.warning(String.format("#%d failed %s: %s", position, imagePath, e.getMessage()));
+		}
+	}
+}
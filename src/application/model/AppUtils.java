@@ -1,18 +1,11 @@
 package application.model;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
+import java.net.URI;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
@@ -76,31 +69,20 @@ public class AppUtils {
         return dialog;
 	}
 	
+	/**
+	 * Opens a playlist file, either in the binary format or written by
+	 * Java serialization in older versions. Binary playlists are memory
+	 * mapped rather than read into the heap.
+	 * @see PlaylistFile
+	 */
 	public static ImagePlaylist readImagePlaylist(String filePath) throws ClassNotFoundException, 
 																			IOException {
-		ImagePlaylist output = null;
-		InputStream file = new FileInputStream(filePath);
-    	InputStream buffer = new BufferedInputStream(file);
-    	ObjectInput input = new ObjectInputStream (buffer);
-    	output = (ImagePlaylist)input.readObject();
-    	
-    	input.close();
-    	buffer.close();
-    	file.close();
-	    
-	    return output;
+		return PlaylistFile.open(filePath);
 	}
 	
 	public static void writeImagePlaylist(String filePath, 
 										ImagePlaylist imagePlaylist) throws IOException{
-		OutputStream newFile = new FileOutputStream(filePath);
-    	OutputStream buffer = new BufferedOutputStream(newFile);
-    	ObjectOutput output = new ObjectOutputStream(buffer);
-    	output.writeObject(imagePlaylist);
-    	
-    	output.close();
-    	buffer.close();
-    	newFile.close();
+		PlaylistFile.write(filePath, imagePlaylist);
 	}
 	
 	public static String getParentDirectory(File file){
@@ -123,6 +105,26 @@ public class AppUtils {
 		}
 	}
 	
+	/**
+	 * Inverse of getImageFileName
+	 * @param imagePath A file URL or a plain file system path
+	 * @return The local file the path refers to, or null if it is not a local file
+	 */
+	public static File toFile(String imagePath){
+		if(imagePath == null)
+			return null;
+		
+		if(!imagePath.startsWith("file:"))
+			return new File(imagePath);
+		
+		try{
+			return new File(new URI(imagePath));
+		}
+		catch(Exception e){
+			return null;
+		}
+	}
+	
 	public static boolean isImageFile(File file){
 		if(file == null || file.isDirectory())
 			return false;
@@ -155,6 +157,23 @@ public class AppUtils {
 		}
 	}
 	
+	/**
+	 * Checks the magic bytes at the start of the file rather than its name
+	 * @param file
+	 * @return true if the file holds an image in a format JavaFX can decode
+	 */
+	public static boolean isImageContent(File file){
+		if(file == null)
+			return false;
+		
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			return ImageFormat.sniff(ImageFormat.readHead(channel)).isSupported();
+		}
+		catch(IOException | RuntimeException e){
+			return false;
+		}
+	}
+	
 	public static boolean isImageExtension(String extension){
 		String str = extension.toLowerCase();
 		switch(str){
@@ -162,6 +181,7 @@ public class AppUtils {
 			case "jpeg":
 			case "png":
 			case "gif":
+			case "bmp":
 				return true;
 			default:
 				return false;
@@ -0,0 +1,74 @@
+package application.model;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * 
+ * @author John Riley
+ * Decodes playlist entries with ImageIO, which unlike JavaFX images works
+ * without a toolkit or a display. Images can be subsampled while they are
+ * read when a maximum size is given.
+ */
+public class BufferedImageDecoder implements SlideshowEngine.FrameDecoder<BufferedImage> {
+	
+	private final int maxSize;
+	
+	public BufferedImageDecoder(){
+		this(0);
+	}
+	
+	/**
+	 * @param maxSize Longest edge of the decoded images, 0 for full size
+	 */
+	public BufferedImageDecoder(int maxSize){
+		this.maxSize = maxSize;
+	}
+	
+	@Override
+	public BufferedImage decode(String imagePath) throws IOException {
+		File file = AppUtils.toFile(imagePath);
+		if(file == null)
+			throw new IOException("Not a local file: " + imagePath);
+		
+		return read(file, maxSize);
+	}
+	
+	/**
+	 * @param file
+	 * @param maxSize Longest edge of the result, 0 for full size
+	 * @return The image, subsampled by the largest whole factor that keeps it at least maxSize
+	 */
+	public static BufferedImage read(File file, int maxSize) throws IOException {
+		try(ImageInputStream input = ImageIO.createImageInputStream(file)){
+			if(input == null)
+				throw new IOException("Cannot open " + file);
+			
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if(!readers.hasNext())
+				throw new IOException("Unsupported image format: " + file);
+			
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(input, true, true);
+				ImageReadParam param = reader.getDefaultReadParam();
+				if(maxSize > 0){
+					int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+					int step = Math.max(1, longest / maxSize);
+					param.setSourceSubsampling(step, step, 0, 0);
+				}
+				return reader.read(0, param);
+			}
+			finally{
+				reader.dispose();
+			}
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package application.model;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.RandomAccess;
+
+/**
+ *
+ * @author John Riley
+ * List of playlist entries stored as a table of shared directory prefixes
+ * plus the UTF-8 bytes of each file name, packed into a single byte array.
+ * An entry costs three ints and its file name instead of a full URL String,
+ * and the URL is only put back together when get is called.
+ */
+public class CompactPathList extends AbstractList<String> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 1;
+
+	private final List<String> directories;
+	private final Map<String, Integer> directoryIndexes;
+
+	/* Per entry directory index, and offset and length of the name in the name pool */
+	private int[] entryDirectories, nameOffsets, nameLengths;
+	private int size;
+
+	/* File names of all entries, bytes of removed entries are reclaimed by compact */
+	private byte[] names;
+	private int namesLength, unusedNameBytes;
+
+	public CompactPathList(){
+		this(16);
+	}
+
+	public CompactPathList(int initialSize){
+		initialSize = Math.max(initialSize, 4);
+		directories = new ArrayList<String>();
+		directoryIndexes = new HashMap<String, Integer>();
+		entryDirectories = new int[initialSize];
+		nameOffsets = new int[initialSize];
+		nameLengths = new int[initialSize];
+		names = new byte[initialSize * 16];
+		size = namesLength = unusedNameBytes = 0;
+	}
+
+	public CompactPathList(Collection<String> entries){
+		this(entries.size());
+		addAll(entries);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String get(int index) {
+		checkIndex(index);
+		return directories.get(entryDirectories[index]) +
+				new String(names, nameOffsets[index], nameLengths[index], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The directory prefix of the entry, without building its URL
+	 */
+	public String getDirectory(int index){
+		checkIndex(index);
+		return directories.get(entryDirectories[index]);
+	}
+
+	public int getDirectoryCount(){
+		return directories.size();
+	}
+
+	@Override
+	public void add(int index, String entry) {
+		if(index < 0 || index > size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+		ensureCapacity(size + 1);
+		if(index < size){
+			int count = size - index;
+			System.arraycopy(entryDirectories, index, entryDirectories, index + 1, count);
+			System.arraycopy(nameOffsets, index, nameOffsets, index + 1, count);
+			System.arraycopy(nameLengths, index, nameLengths, index + 1, count);
+		}
+		size++;
+		store(index, entry);
+		modCount++;
+	}
+
+	@Override
+	public String set(int index, String entry) {
+		String previous = get(index);
+		unusedNameBytes += nameLengths[index];
+		store(index, entry);
+		return previous;
+	}
+
+	@Override
+	public String remove(int index) {
+		String previous = get(index);
+		unusedNameBytes += nameLengths[index];
+
+		int count = size - index - 1;
+		if(count > 0){
+			System.arraycopy(entryDirectories, index + 1, entryDirectories, index, count);
+			System.arraycopy(nameOffsets, index + 1, nameOffsets, index, count);
+			System.arraycopy(nameLengths, index + 1, nameLengths, index, count);
+		}
+		size--;
+		modCount++;
+
+		if(unusedNameBytes > namesLength / 2)
+			compact();
+		return previous;
+	}
+
+	/**
+	 * Removes several entries in one pass over the list
+	 * @param indexes Indexes of the entries to remove, in ascending order without repeats
+	 */
+	public void removeEntries(int[] indexes){
+		if(indexes.length == 0)
+			return;
+
+		int next = 0, j = indexes[0];
+		for(int i = indexes[0]; i < size; i++){
+			if(next < indexes.length && indexes[next] == i){
+				unusedNameBytes += nameLengths[i];
+				next++;
+				continue;
+			}
+			entryDirectories[j] = entryDirectories[i];
+			nameOffsets[j] = nameOffsets[i];
+			nameLengths[j] = nameLengths[i];
+			j++;
+		}
+		size = j;
+		modCount++;
+
+		if(unusedNameBytes > namesLength / 2)
+			compact();
+	}
+
+	@Override
+	public void clear() {
+		directories.clear();
+		directoryIndexes.clear();
+		size = namesLength = unusedNameBytes = 0;
+		modCount++;
+	}
+
+	/**
+	 * Exchanges two entries without decoding either of them
+	 */
+	public void swap(int i, int j){
+		checkIndex(i);
+		checkIndex(j);
+		swap(entryDirectories, i, j);
+		swap(nameOffsets, i, j);
+		swap(nameLengths, i, j);
+	}
+
+	/**
+	 * In place Fisher-Yates shuffle that only moves the per entry ints
+	 */
+	public void shuffle(Random rng){
+		for(int i = size - 1; i > 0; i--)
+			swap(i, rng.nextInt(i + 1));
+		modCount++;
+	}
+
+	private void store(int index, String entry){
+		int nameStart = entry.lastIndexOf('/') + 1;
+		String directory = entry.substring(0, nameStart);
+		Integer directoryIndex = directoryIndexes.get(directory);
+		if(directoryIndex == null){
+			directoryIndex = directories.size();
+			directories.add(directory);
+			directoryIndexes.put(directory, directoryIndex);
+		}
+
+		byte[] name = entry.substring(nameStart).getBytes(StandardCharsets.UTF_8);
+		if(namesLength + name.length > names.length)
+			names = Arrays.copyOf(names, Math.max(namesLength + name.length, names.length + (names.length >> 1)));
+		System.arraycopy(name, 0, names, namesLength, name.length);
+
+		entryDirectories[index] = directoryIndex;
+		nameOffsets[index] = namesLength;
+		nameLengths[index] = name.length;
+		namesLength += name.length;
+	}
+
+	/**
+	 * Rewrites the name pool without the bytes of removed or replaced entries
+	 */
+	private void compact(){
+		byte[] compacted = new byte[Math.max(namesLength - unusedNameBytes, 16)];
+		int length = 0;
+		for(int i = 0; i < size; i++){
+			System.arraycopy(names, nameOffsets[i], compacted, length, nameLengths[i]);
+			nameOffsets[i] = length;
+			length += nameLengths[i];
+		}
+		names = compacted;
+		namesLength = length;
+		unusedNameBytes = 0;
+	}
+
+	private void ensureCapacity(int capacity){
+		if(capacity <= entryDirectories.length)
+			return;
+
+		int newCapacity = Math.max(capacity, entryDirectories.length + (entryDirectories.length >> 1));
+		entryDirectories = Arrays.copyOf(entryDirectories, newCapacity);
+		nameOffsets = Arrays.copyOf(nameOffsets, newCapacity);
+		nameLengths = Arrays.copyOf(nameLengths, newCapacity);
+	}
+
+	private void checkIndex(int index){
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	private static void swap(int[] array, int i, int j){
+		int tmp = array[i];
+		array[i] = array[j];
+		array[j] = tmp;
+	}
+}
@@ -0,0 +1,69 @@
+package application.model;
+
+/**
+ *
+ * @author John Riley
+ * Predicts how long an image will take to decode from the size of its file.
+ * Files are grouped into power of two size classes and each class keeps an
+ * exponentially weighted average of the decode times measured for it. Classes
+ * without measurements fall back to the average cost per byte over all files.
+ */
+public class DecodeCostModel {
+
+	private static final int SIZE_CLASSES = 48;
+
+	/* Weight of the newest measurement */
+	private static final double SMOOTHING = 0.3;
+
+	/* Used until the first decode has been measured, about 10ms per megabyte */
+	private static final double DEFAULT_NANOS_PER_BYTE = 10;
+
+	private final double[] classNanos;
+	private double nanosPerByte;
+	private long sampleCount;
+
+	public DecodeCostModel(){
+		classNanos = new double[SIZE_CLASSES];
+		nanosPerByte = DEFAULT_NANOS_PER_BYTE;
+		sampleCount = 0;
+	}
+
+	/**
+	 * @param fileBytes Size of the decoded file
+	 * @param nanos Time the decode took
+	 */
+	public synchronized void record(long fileBytes, long nanos){
+		if(fileBytes <= 0 || nanos <= 0)
+			return;
+
+		int sizeClass = sizeClassOf(fileBytes);
+		classNanos[sizeClass] = classNanos[sizeClass] == 0 ? nanos :
+								SMOOTHING * nanos + (1 - SMOOTHING) * classNanos[sizeClass];
+
+		double perByte = (double) nanos / fileBytes;
+		nanosPerByte = sampleCount == 0 ? perByte : SMOOTHING * perByte + (1 - SMOOTHING) * nanosPerByte;
+		sampleCount++;
+	}
+
+	/**
+	 * @param fileBytes
+	 * @return Expected decode time in nanoseconds
+	 */
+	public synchronized long predict(long fileBytes){
+		if(fileBytes <= 0)
+			return 0;
+
+		double estimate = classNanos[sizeClassOf(fileBytes)];
+		if(estimate == 0)
+			estimate = nanosPerByte * fileBytes;
+		return (long) estimate;
+	}
+
+	public synchronized long getSampleCount(){
+		return sampleCount;
+	}
+
+	private static int sizeClassOf(long fileBytes){
+		return Math.min(SIZE_CLASSES - 1, 63 - Long.numberOfLeadingZeros(fileBytes));
+	}
+}
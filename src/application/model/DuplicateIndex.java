@@ -0,0 +1,278 @@
+package application.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * @author John Riley
+ * Perceptual hashes of every entry of a playlist, one long per index in
+ * the underlying list, whatever order the entries are visited in or
+ * whether a filter hides them,
+ * with multi-index hashing for near duplicate lookups. Each hash is cut into
+ * four 16 bit chunks and every chunk gets its own table of positions sorted
+ * by chunk value. Two hashes within d bits of each other must have a chunk
+ * within d / 4 bits, so only the buckets that close to each chunk of a hash
+ * have to be compared instead of the whole playlist.
+ *
+ * The index is a snapshot of the playlist entries at one entry version. It
+ * survives shuffling and sorting the visiting order, but its positions mean
+ * nothing once entries have been added, removed, renamed or moved.
+ */
+public class DuplicateIndex {
+
+	/* Bits that may differ between two hashes of the same picture */
+	public static final int DEFAULT_MAX_DISTANCE = 6;
+
+	private static final int CHUNKS = 4, CHUNK_BITS = 16;
+	private static final int CHUNK_VALUES = 1 << CHUNK_BITS;
+
+	private final long[] hashes;
+	private final BitSet hashed;
+	private final int version;
+
+	/* Per chunk, the hashed positions sorted by chunk value and where each value starts */
+	private int[][] bucketStarts, bucketPositions;
+
+	/* Hashes in the same order as bucketPositions, so a bucket is scanned without jumping around */
+	private long[][] bucketHashes;
+
+	/* Result of the last grouping, a million entries take seconds to group */
+	private List<int[]> groups;
+	private int groupsDistance;
+
+	/**
+	 * @param size Number of entries in the underlying list of the playlist
+	 * @param version Entry version of the playlist the hashes belong to
+	 */
+	public DuplicateIndex(int size, int version){
+		this.hashes = new long[size];
+		this.hashed = new BitSet(size);
+		this.version = version;
+	}
+
+	public int size(){
+		return hashes.length;
+	}
+
+	public int getVersion(){
+		return version;
+	}
+
+	/**
+	 * @return true if the index still describes the playlist
+	 */
+	public boolean isCurrent(IndexedImagePlaylist playlist){
+		return playlist.getEntryVersion() == version && playlist.entryCount() == hashes.length;
+	}
+
+	/**
+	 * Thread safe for different positions, as long as no lookups run at the same time
+	 */
+	public void setHash(int position, long hash){
+		hashes[position] = hash;
+		synchronized(hashed){
+			hashed.set(position);
+		}
+		bucketStarts = null;
+		groups = null;
+	}
+
+	public boolean isHashed(int position){
+		return hashed.get(position);
+	}
+
+	public long getHash(int position){
+		return hashes[position];
+	}
+
+	public int getHashedCount(){
+		return hashed.cardinality();
+	}
+
+	/**
+	 * @param position A hashed position
+	 * @param maxDistance Most bits that may differ
+	 * @return Every other hashed position within maxDistance bits of it, in ascending order
+	 */
+	public synchronized int[] findSimilar(int position, int maxDistance){
+		if(!isHashed(position))
+			return new int[0];
+
+		Matches matches = new Matches();
+		collectSimilar(position, maxDistance, 0, matches);
+		int[] similar = matches.toSortedArray();
+		//The position matches itself
+		int self = Arrays.binarySearch(similar, position);
+		int[] result = new int[similar.length - 1];
+		System.arraycopy(similar, 0, result, 0, self);
+		System.arraycopy(similar, self + 1, result, self, result.length - self);
+		return result;
+	}
+
+	/**
+	 * Groups the hashed positions whose hashes are within maxDistance bits of
+	 * another member of the group
+	 * @return Groups of two or more positions, each in ascending order, ordered by their first position
+	 */
+	public synchronized List<int[]> findDuplicateGroups(int maxDistance){
+		if(groups != null && groupsDistance == maxDistance)
+			return groups;
+
+		int size = hashes.length;
+		int[] parent = new int[size];
+		for(int i = 0; i < size; i++)
+			parent[i] = i;
+
+		Matches matches = new Matches();
+		for(int position = hashed.nextSetBit(0); position >= 0; position = hashed.nextSetBit(position + 1)){
+			matches.count = 0;
+			//Pairs are found from both ends, only look ahead
+			collectSimilar(position, maxDistance, position + 1, matches);
+			for(int i = 0; i < matches.count; i++)
+				union(parent, position, matches.positions[i]);
+		}
+
+		int[] groupSizes = new int[size];
+		for(int position = hashed.nextSetBit(0); position >= 0; position = hashed.nextSetBit(position + 1))
+			groupSizes[find(parent, position)]++;
+
+		//Roots are always the lowest position of their group, so groups come out in order
+		int[][] members = new int[size][];
+		List<int[]> result = new ArrayList<int[]>();
+		int[] filled = new int[size];
+		for(int position = hashed.nextSetBit(0); position >= 0; position = hashed.nextSetBit(position + 1)){
+			int root = find(parent, position);
+			if(groupSizes[root] < 2)
+				continue;
+			if(members[root] == null){
+				members[root] = new int[groupSizes[root]];
+				result.add(members[root]);
+			}
+			members[root][filled[root]++] = position;
+		}
+
+		this.groups = Collections.unmodifiableList(result);
+		this.groupsDistance = maxDistance;
+		return this.groups;
+	}
+
+	/**
+	 * Adds to matches every hashed position from minPosition on within maxDistance bits of a position
+	 */
+	private void collectSimilar(int position, int maxDistance, int minPosition, Matches matches){
+		buildBuckets();
+		long hash = hashes[position];
+		int radius = maxDistance / CHUNKS;
+		for(int chunk = 0; chunk < CHUNKS; chunk++){
+			int value = chunkValue(hash, chunk);
+			probe(chunk, value, radius, 0, hash, maxDistance, minPosition, matches);
+		}
+	}
+
+	/**
+	 * Visits every bucket of a chunk table within radius bits of value, flipping
+	 * bits from firstBit up so no bucket is visited twice
+	 */
+	private void probe(int chunk, int value, int radius, int firstBit, long hash, int maxDistance,
+						int minPosition, Matches matches){
+		int[] starts = bucketStarts[chunk], positions = bucketPositions[chunk];
+		long[] sortedHashes = bucketHashes[chunk];
+		for(int i = starts[value]; i < starts[value + 1]; i++){
+			if(PerceptualHash.distance(hash, sortedHashes[i]) <= maxDistance && positions[i] >= minPosition)
+				matches.add(positions[i]);
+		}
+
+		if(radius == 0)
+			return;
+		for(int bit = firstBit; bit < CHUNK_BITS; bit++)
+			probe(chunk, value ^ (1 << bit), radius - 1, bit + 1, hash, maxDistance, minPosition, matches);
+	}
+
+	/**
+	 * Sorts the hashed positions into the chunk tables with a counting sort,
+	 * once after the last hash was set
+	 */
+	private void buildBuckets(){
+		if(bucketStarts != null)
+			return;
+
+		int[][] starts = new int[CHUNKS][CHUNK_VALUES + 1];
+		int[][] positions = new int[CHUNKS][];
+		long[][] sortedHashes = new long[CHUNKS][];
+		int count = hashed.cardinality();
+		for(int chunk = 0; chunk < CHUNKS; chunk++){
+			int[] start = starts[chunk];
+			for(int position = hashed.nextSetBit(0); position >= 0; position = hashed.nextSetBit(position + 1))
+				start[chunkValue(hashes[position], chunk) + 1]++;
+			for(int value = 0; value < CHUNK_VALUES; value++)
+				start[value + 1] += start[value];
+
+			int[] next = Arrays.copyOf(start, CHUNK_VALUES);
+			int[] sorted = new int[count];
+			long[] sortedHash = new long[count];
+			for(int position = hashed.nextSetBit(0); position >= 0; position = hashed.nextSetBit(position + 1)){
+				int slot = next[chunkValue(hashes[position], chunk)]++;
+				sorted[slot] = position;
+				sortedHash[slot] = hashes[position];
+			}
+			positions[chunk] = sorted;
+			sortedHashes[chunk] = sortedHash;
+		}
+		bucketPositions = positions;
+		bucketHashes = sortedHashes;
+		bucketStarts = starts;
+	}
+
+	/**
+	 * Positions found by a lookup. A pair close in several chunks is found once
+	 * per chunk, so positions can repeat.
+	 */
+	private static class Matches {
+		int[] positions = new int[16];
+		int count;
+
+		void add(int position){
+			if(count == positions.length)
+				positions = Arrays.copyOf(positions, count * 2);
+			positions[count++] = position;
+		}
+
+		int[] toSortedArray(){
+			int[] sorted = Arrays.copyOf(positions, count);
+			Arrays.sort(sorted);
+			int unique = 0;
+			for(int i = 0; i < sorted.length; i++){
+				if(unique == 0 || sorted[unique - 1] != sorted[i])
+					sorted[unique++] = sorted[i];
+			}
+			return Arrays.copyOf(sorted, unique);
+		}
+	}
+
+	private static int chunkValue(long hash, int chunk){
+		return (int) (hash >>> (chunk * CHUNK_BITS)) & (CHUNK_VALUES - 1);
+	}
+
+	private static int find(int[] parent, int i){
+		while(parent[i] != i){
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Joins two groups under the lower of their roots
+	 */
+	private static void union(int[] parent, int a, int b){
+		int rootA = find(parent, a), rootB = find(parent, b);
+		if(rootA < rootB)
+			parent[rootB] = rootA;
+		else if(rootB < rootA)
+			parent[rootA] = rootB;
+	}
+}
@@ -0,0 +1,219 @@
+package application.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javafx.application.Platform;
+
+/**
+ *
+ * @author John Riley
+ * Builds a DuplicateIndex for a playlist in the background. Entries are
+ * walked in list order, so entries hidden by a filter are indexed too, and
+ * taken from the playlist in batches on the JavaFX application thread and
+ * hashed on a fork join pool, splitting each batch until the pieces are
+ * small enough to hash directly. Entries that cannot be decoded are simply
+ * left out of the index.
+ */
+public class DuplicateIndexer {
+
+	private static final int BATCH_SIZE = 4096;
+
+	/* Entries hashed by one task without splitting further */
+	private static final int LEAF_SIZE = 16;
+
+	/**
+	 * Receives the progress of an indexing run on the JavaFX application thread
+	 */
+	public interface IndexListener {
+		/**
+		 * @param done Number of entries processed so far
+		 * @param total Number of entries being indexed
+		 */
+		void onProgress(int done, int total);
+
+		/**
+		 * @param index The index, holding the hashes of every entry that could be decoded
+		 * @param cancelled true if indexing was stopped before finishing
+		 */
+		void onIndexFinished(DuplicateIndex index, boolean cancelled);
+	}
+
+	private final IndexedImagePlaylist playlist;
+	private final IndexListener listener;
+	private final AtomicInteger done;
+
+	private DuplicateIndex index;
+	private volatile boolean cancelled, started;
+
+	public DuplicateIndexer(IndexedImagePlaylist playlist, IndexListener listener){
+		this.playlist = playlist;
+		this.listener = listener;
+		this.done = new AtomicInteger();
+	}
+
+	/**
+	 * Starts hashing the playlist in the background. Must be called on the
+	 * JavaFX application thread, the index covers the playlist as it is now.
+	 */
+	public void start(){
+		if(started)
+			return;
+		started = true;
+		index = new DuplicateIndex(playlist.entryCount(), playlist.getEntryVersion());
+
+		Thread thread = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+				try{
+					hashAll(pool);
+					//Grouping a large playlist takes a while too, get it done off the UI thread
+					if(!cancelled)
+						index.findDuplicateGroups(DuplicateIndex.DEFAULT_MAX_DISTANCE);
+				}
+				catch(InterruptedException e){
+					cancelled = true;
+				}
+				finally{
+					pool.shutdownNow();
+				}
+				finish();
+			}
+		}, "duplicate-index");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	public void cancel(){
+		cancelled = true;
+	}
+
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	public IndexedImagePlaylist getPlaylist(){
+		return playlist;
+	}
+
+	/**
+	 * @return The index being built, null before start is called
+	 */
+	public DuplicateIndex getIndex(){
+		return index;
+	}
+
+	private void hashAll(ForkJoinPool pool) throws InterruptedException {
+		final int total = index.size();
+		int next = 0;
+		while(next < total && !cancelled){
+			List<String> paths = fetch(next, Math.min(total, next + BATCH_SIZE));
+			if(paths == null || paths.isEmpty())
+				return;
+
+			pool.invoke(new HashTask(paths, next, 0, paths.size()));
+			next += paths.size();
+
+			final int progress = done.get();
+			Platform.runLater(new Runnable(){
+				@Override
+				public void run() {
+					if(!cancelled)
+						listener.onProgress(progress, total);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Reads a range of entries on the JavaFX application thread
+	 * @return The entries, which stop early if the playlist has shrunk, or null on failure
+	 */
+	private List<String> fetch(final int start, final int end) throws InterruptedException {
+		FutureTask<List<String>> task = new FutureTask<List<String>>(new Callable<List<String>>(){
+			@Override
+			public List<String> call() {
+				//Entries that moved since the snapshot would be hashed into the wrong slot
+				if(!cancelled && playlist.getEntryVersion() != index.getVersion())
+					cancelled = true;
+
+				int stop = cancelled ? start : Math.min(end, playlist.entryCount());
+				List<String> paths = new ArrayList<String>(Math.max(0, stop - start));
+				for(int i = start; i < stop; i++)
+					paths.add(playlist.getEntry(i));
+				return paths;
+			}
+		});
+		Platform.runLater(task);
+		try{
+			return task.get();
+		}
+		catch(ExecutionException e){
+			return null;
+		}
+	}
+
+	private void finish(){
+		final DuplicateIndex result = index;
+		Platform.runLater(new Runnable(){
+			@Override
+			public void run() {
+				listener.onIndexFinished(result, cancelled);
+			}
+		});
+	}
+
+	private class HashTask extends RecursiveAction {
+		private static final long serialVersionUID = 1;
+
+		private final List<String> paths;
+		private final int offset, from, to;
+
+		/**
+		 * @param paths A batch of entries
+		 * @param offset Index of the first entry of the batch
+		 * @param from First entry of the batch to hash
+		 * @param to End of the range to hash
+		 */
+		HashTask(List<String> paths, int offset, int from, int to){
+			this.paths = paths;
+			this.offset = offset;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(cancelled)
+				return;
+
+			if(to - from > LEAF_SIZE){
+				int middle = (from + to) >>> 1;
+				invokeAll(new HashTask(paths, offset, from, middle), new HashTask(paths, offset, middle, to));
+				return;
+			}
+
+			for(int i = from; i < to && !cancelled; i++){
+				String imagePath = paths.get(i);
+				if(imagePath != null){
+					try{
+						index.setHash(offset + i, PerceptualHash.hash(imagePath));
+					}
+					catch(IOException | RuntimeException e){
+						//Left out of the index, it cannot be compared anyway
+					}
+				}
+				done.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package application.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ *
+ * @author John Riley
+ * Pulls the preview JPEG that cameras embed in the EXIF block of their
+ * photos. The EXIF block sits in the APP1 segment near the start of the file
+ * and can be at most 64KB long. Only the segment headers in front of it
+ * and the block itself are read, instead of the several megabytes a full
+ * decode has to get through.
+ */
+public class ExifThumbnailReader {
+
+	private static final int MARKER_SOI = 0xD8, MARKER_SOS = 0xDA, MARKER_APP1 = 0xE1;
+	private static final int TAG_THUMBNAIL_OFFSET = 0x0201, TAG_THUMBNAIL_LENGTH = 0x0202;
+	private static final int TAG_DATE_TIME = 0x0132, TAG_EXIF_IFD = 0x8769, TAG_DATE_TIME_ORIGINAL = 0x9003;
+
+	/* Dates are written as "YYYY:MM:DD HH:MM:SS" in camera local time */
+	private static final DateTimeFormatter EXIF_DATE = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+	private ExifThumbnailReader(){
+	}
+
+	public static boolean isJpeg(String imagePath){
+		if(imagePath == null)
+			return false;
+
+		String lower = imagePath.toLowerCase();
+		return lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+	}
+
+	/**
+	 * @param file A JPEG file
+	 * @return The embedded preview as JPEG bytes, or null if there is none
+	 */
+	public static byte[] read(File file){
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			ByteBuffer tiff = readTiff(channel);
+			return tiff != null ? readThumbnail(tiff) : null;
+		}
+		catch(IOException | RuntimeException e){
+			//Damaged or truncated EXIF data just means no preview
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the dimensions from the frame header of a JPEG without decoding it
+	 * @param jpeg
+	 * @return {width, height}, or null if no frame header was found
+	 */
+	public static int[] getDimensions(byte[] jpeg){
+		return getDimensions(ByteBuffer.wrap(jpeg));
+	}
+
+	/**
+	 * @param jpeg The start of a JPEG, at least up to its frame header
+	 * @return {width, height}, or null if no frame header was found
+	 */
+	static int[] getDimensions(ByteBuffer jpeg){
+		ByteBuffer buffer = jpeg.duplicate();
+		if(buffer.remaining() < 4 || (buffer.getShort() & 0xFFFF) != (0xFF00 | MARKER_SOI))
+			return null;
+
+		while(buffer.remaining() >= 4){
+			if((buffer.get() & 0xFF) != 0xFF)
+				return null;
+			int marker = buffer.get() & 0xFF;
+			if(marker == 0xFF){
+				//Fill byte, the marker follows
+				buffer.position(buffer.position() - 1);
+				continue;
+			}
+
+			int length = buffer.getShort() & 0xFFFF;
+			if(isFrameHeader(marker)){
+				if(buffer.remaining() < 5)
+					return null;
+				buffer.get(); //precision
+				int height = buffer.getShort() & 0xFFFF;
+				int width = buffer.getShort() & 0xFFFF;
+				return new int[]{width, height};
+			}
+			if(marker == MARKER_SOS || length < 2 || length - 2 > buffer.remaining())
+				return null;
+			buffer.position(buffer.position() + length - 2);
+		}
+		return null;
+	}
+
+	/**
+	 * Walks the JPEG segments on disk up to the EXIF block, reading only the
+	 * four bytes of marker and length of every segment in front of it and
+	 * then exactly the length of the block
+	 * @param channel A JPEG file
+	 * @return The TIFF structure inside the EXIF block, with its byte order set, or null if there is none
+	 */
+	static ByteBuffer readTiff(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		long position = firstSegment(channel, header);
+		while((position = nextSegment(channel, header, position)) >= 0){
+			int marker = header.get(1) & 0xFF;
+			int length = header.getShort(2) & 0xFFFF;
+			if(marker == MARKER_SOS || isFrameHeader(marker))
+				return null;
+
+			if(marker == MARKER_APP1 && length - 2 >= 6){
+				ByteBuffer segment = ByteBuffer.allocate(length - 2);
+				if(!readFully(channel, segment, position + 4))
+					return null;
+				if(isExifHeader(segment, 0)){
+					ByteBuffer tiff = sliceTiff(segment, 6, segment.limit());
+					if(tiff != null)
+						return tiff;
+				}
+			}
+			position += 2 + length;
+		}
+		return null;
+	}
+
+	/**
+	 * Walks the JPEG segments on disk up to the frame header the same way,
+	 * skipping the EXIF block and anything else in front of it unread
+	 * @param channel A JPEG file
+	 * @return {width, height}, or null if no frame header was found
+	 */
+	static int[] readDimensions(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		long position = firstSegment(channel, header);
+		while((position = nextSegment(channel, header, position)) >= 0){
+			int marker = header.get(1) & 0xFF;
+			if(marker == MARKER_SOS)
+				return null;
+
+			if(isFrameHeader(marker)){
+				ByteBuffer frame = ByteBuffer.allocate(5);
+				if(!readFully(channel, frame, position + 4))
+					return null;
+				return new int[]{frame.getShort(3) & 0xFFFF, frame.getShort(1) & 0xFFFF};
+			}
+			position += 2 + (header.getShort(2) & 0xFFFF);
+		}
+		return null;
+	}
+
+	/**
+	 * @return Position of the first segment, or -1 if the file does not start like a JPEG
+	 */
+	private static long firstSegment(FileChannel channel, ByteBuffer header) throws IOException {
+		if(!readFully(channel, header, 0) || (header.getShort(0) & 0xFFFF) != (0xFF00 | MARKER_SOI))
+			return -1;
+		return 2;
+	}
+
+	/**
+	 * Reads the marker and length of the segment at the given position,
+	 * skipping any fill bytes in front of the marker
+	 * @param header Receives the marker and length
+	 * @return Position of the segment, or -1 if the file ends or the segments are damaged
+	 */
+	private static long nextSegment(FileChannel channel, ByteBuffer header, long position) throws IOException {
+		while(position >= 0 && readFully(channel, header, position)){
+			if((header.get(0) & 0xFF) != 0xFF)
+				return -1;
+			if((header.get(1) & 0xFF) == 0xFF){
+				position++;
+				continue;
+			}
+			return (header.getShort(2) & 0xFFFF) < 2 ? -1 : position;
+		}
+		return -1;
+	}
+
+	/**
+	 * Fills the buffer from the given file position
+	 * @return false if the file ends first
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		while(buffer.hasRemaining()){
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0)
+				return false;
+		}
+		buffer.flip();
+		return true;
+	}
+
+	private static boolean isExifHeader(ByteBuffer buffer, int start){
+		return start + 6 <= buffer.limit() &&
+				buffer.get(start) == 'E' && buffer.get(start + 1) == 'x' &&
+				buffer.get(start + 2) == 'i' && buffer.get(start + 3) == 'f' &&
+				buffer.get(start + 4) == 0 && buffer.get(start + 5) == 0;
+	}
+
+	/**
+	 * @param buffer The head of the file
+	 * @param tiffStart Start of the TIFF header, all EXIF offsets count from here
+	 * @param tiffEnd End of the APP1 segment
+	 */
+	private static ByteBuffer sliceTiff(ByteBuffer buffer, int tiffStart, int tiffEnd){
+		ByteBuffer tiff = buffer.duplicate();
+		tiff.position(tiffStart).limit(tiffEnd);
+		tiff = tiff.slice();
+		if(tiff.remaining() < 8)
+			return null;
+
+		short byteOrder = tiff.getShort(0);
+		if(byteOrder == 0x4949)
+			tiff.order(ByteOrder.LITTLE_ENDIAN);
+		else if(byteOrder == 0x4D4D)
+			tiff.order(ByteOrder.BIG_ENDIAN);
+		else
+			return null;
+		return tiff;
+	}
+
+	/**
+	 * Follows the TIFF structure from IFD0 to IFD1, which describes the preview
+	 */
+	private static byte[] readThumbnail(ByteBuffer tiff){
+		long ifd0 = tiff.getInt(4) & 0xFFFFFFFFL;
+		long ifd1 = nextIfd(tiff, ifd0);
+		if(ifd1 <= 0 || ifd1 + 2 > tiff.limit())
+			return null;
+
+		int entries = tiff.getShort((int) ifd1) & 0xFFFF;
+		long offset = -1, length = -1;
+		for(int i = 0; i < entries; i++){
+			int entry = (int) ifd1 + 2 + i * 12;
+			if(entry + 12 > tiff.limit())
+				return null;
+
+			int tag = tiff.getShort(entry) & 0xFFFF;
+			if(tag == TAG_THUMBNAIL_OFFSET)
+				offset = readLongValue(tiff, entry);
+			else if(tag == TAG_THUMBNAIL_LENGTH)
+				length = readLongValue(tiff, entry);
+		}
+
+		if(offset <= 0 || length <= 0 || offset + length > tiff.limit())
+			return null;
+
+		byte[] thumbnail = new byte[(int) length];
+		tiff.position((int) offset);
+		tiff.get(thumbnail);
+
+		//Some writers point at padding, only accept something that starts like a JPEG
+		if(thumbnail.length < 4 || (thumbnail[0] & 0xFF) != 0xFF || (thumbnail[1] & 0xFF) != MARKER_SOI)
+			return null;
+		return thumbnail;
+	}
+
+	/**
+	 * @param tiff TIFF structure returned by readTiff
+	 * @return When the photo was taken in milliseconds since the epoch, read as
+	 * local time, or -1 if the EXIF block does not say
+	 */
+	static long readCaptureTime(ByteBuffer tiff){
+		try{
+			long ifd0 = tiff.getInt(4) & 0xFFFFFFFFL;
+			int exifIfd = findEntry(tiff, ifd0, TAG_EXIF_IFD);
+			if(exifIfd > 0){
+				int original = findEntry(tiff, readLongValue(tiff, exifIfd), TAG_DATE_TIME_ORIGINAL);
+				long time = original > 0 ? readDate(tiff, original) : -1;
+				if(time >= 0)
+					return time;
+			}
+
+			//Fall back to when the file was last written by the camera or an editor
+			int modified = findEntry(tiff, ifd0, TAG_DATE_TIME);
+			return modified > 0 ? readDate(tiff, modified) : -1;
+		}
+		catch(RuntimeException e){
+			return -1;
+		}
+	}
+
+	/**
+	 * @return Offset of the entry with the given tag in the IFD, or -1 if there is none
+	 */
+	private static int findEntry(ByteBuffer tiff, long ifd, int tag){
+		if(ifd < 8 || ifd + 2 > tiff.limit())
+			return -1;
+
+		int entries = tiff.getShort((int) ifd) & 0xFFFF;
+		for(int i = 0; i < entries; i++){
+			int entry = (int) ifd + 2 + i * 12;
+			if(entry + 12 > tiff.limit())
+				return -1;
+			if((tiff.getShort(entry) & 0xFFFF) == tag)
+				return entry;
+		}
+		return -1;
+	}
+
+	/**
+	 * Dates are ASCII values long enough to be stored outside the entry
+	 */
+	private static long readDate(ByteBuffer tiff, int entry){
+		int type = tiff.getShort(entry + 2) & 0xFFFF;
+		long length = tiff.getInt(entry + 4) & 0xFFFFFFFFL;
+		long offset = tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+		if(type != 2 || length < 19 || offset + 19 > tiff.limit())
+			return -1;
+
+		byte[] text = new byte[19];
+		for(int i = 0; i < text.length; i++)
+			text[i] = tiff.get((int) offset + i);
+		try{
+			LocalDateTime time = LocalDateTime.parse(new String(text, StandardCharsets.US_ASCII), EXIF_DATE);
+			return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		}
+		catch(DateTimeParseException e){
+			//Unset dates are often written as blanks or zeros
+			return -1;
+		}
+	}
+
+	/**
+	 * @return Offset of the IFD following the one at the given offset, 0 if there is none
+	 */
+	private static long nextIfd(ByteBuffer tiff, long ifd){
+		if(ifd < 8 || ifd + 2 > tiff.limit())
+			return 0;
+
+		int entries = tiff.getShort((int) ifd) & 0xFFFF;
+		long next = ifd + 2 + entries * 12L;
+		if(next + 4 > tiff.limit())
+			return 0;
+		return tiff.getInt((int) next) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Offsets and lengths are SHORT or LONG values stored inline in the entry
+	 */
+	private static long readLongValue(ByteBuffer tiff, int entry){
+		int type = tiff.getShort(entry + 2) & 0xFFFF;
+		if(type == 3)
+			return tiff.getShort(entry + 8) & 0xFFFF;
+		if(type == 4)
+			return tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+		return -1;
+	}
+
+	private static boolean isFrameHeader(int marker){
+		return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+	}
+}
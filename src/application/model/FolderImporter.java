@@ -0,0 +1,200 @@
+package application.model;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javafx.application.Platform;
+
+/**
+ *
+ * @author John Riley
+ * Recursively imports every image below a folder. Directories are listed
+ * in parallel on a fork join pool, and the images found are streamed to the
+ * JavaFX application thread in batches while the walk is still running, so
+ * the first image can be shown long before a large tree has been enumerated.
+ * Files named like images are only taken if their first bytes are an image.
+ * Symbolic links are not followed.
+ */
+public class FolderImporter {
+
+	/* Directory listings are mostly waiting on the disk, so use more threads than cores */
+	private static final int MAX_PARALLELISM = 16;
+
+	/**
+	 * Receives the results of an import on the JavaFX application thread
+	 */
+	public interface ImportListener {
+		/**
+		 * @param imagePaths URLs of the images found since the last batch
+		 */
+		void onImagesFound(List<String> imagePaths);
+
+		/**
+		 * @param imageCount Number of images found in total
+		 * @param failedDirectories Number of directories that could not be read
+		 * @param cancelled true if the import was stopped before finishing
+		 */
+		void onImportFinished(int imageCount, int failedDirectories, boolean cancelled);
+	}
+
+	private final Path root;
+	private final ImportListener listener;
+
+	private final Queue<String> found;
+	private final AtomicBoolean drainScheduled;
+	private final AtomicInteger imageCount, failedDirectories;
+	private volatile boolean cancelled, started;
+
+	public FolderImporter(Path root, ImportListener listener){
+		this.root = root;
+		this.listener = listener;
+		this.found = new ConcurrentLinkedQueue<String>();
+		this.drainScheduled = new AtomicBoolean(false);
+		this.imageCount = new AtomicInteger();
+		this.failedDirectories = new AtomicInteger();
+	}
+
+	/**
+	 * Starts walking the folder in the background
+	 */
+	public void start(){
+		if(started)
+			return;
+		started = true;
+
+		Thread thread = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				int parallelism = Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors() * 2);
+				ForkJoinPool pool = new ForkJoinPool(parallelism);
+				try{
+					pool.invoke(new DirectoryTask(root));
+				}
+				catch(RuntimeException e){
+					failedDirectories.incrementAndGet();
+				}
+				finally{
+					pool.shutdown();
+				}
+				finish();
+			}
+		}, "folder-import");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void cancel(){
+		cancelled = true;
+	}
+
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	public Path getRoot(){
+		return root;
+	}
+
+	private void imageFound(Path file){
+		String imagePath = AppUtils.getImageFileName(file.toFile());
+		if(imagePath == null)
+			return;
+
+		imageCount.incrementAndGet();
+		found.add(imagePath);
+
+		//One drain per pulse at most, whatever arrived in between goes out as one batch
+		if(drainScheduled.compareAndSet(false, true)){
+			Platform.runLater(new Runnable(){
+				@Override
+				public void run() {
+					drain();
+				}
+			});
+		}
+	}
+
+	private void drain(){
+		drainScheduled.set(false);
+		List<String> batch = new ArrayList<String>();
+		String imagePath;
+		while((imagePath = found.poll()) != null)
+			batch.add(imagePath);
+
+		if(!batch.isEmpty() && !cancelled)
+			listener.onImagesFound(batch);
+	}
+
+	private void finish(){
+		Platform.runLater(new Runnable(){
+			@Override
+			public void run() {
+				drain();
+				listener.onImportFinished(imageCount.get(), failedDirectories.get(), cancelled);
+			}
+		});
+	}
+
+	private class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1;
+
+		private final Path directory;
+
+		DirectoryTask(Path directory){
+			this.directory = directory;
+		}
+
+		@Override
+		protected void compute() {
+			if(cancelled)
+				return;
+
+			List<DirectoryTask> subdirectories = new ArrayList<DirectoryTask>();
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)){
+				for(Path path : stream){
+					if(cancelled)
+						return;
+
+					BasicFileAttributes attributes;
+					try{
+						attributes = Files.readAttributes(path, BasicFileAttributes.class,
+														LinkOption.NOFOLLOW_LINKS);
+					}
+					catch(IOException e){
+						continue;
+					}
+
+					if(attributes.isDirectory()){
+						DirectoryTask task = new DirectoryTask(path);
+						task.fork();
+						subdirectories.add(task);
+					}
+					else if(attributes.isRegularFile()){
+						Path name = path.getFileName();
+						if(name != null && AppUtils.isImageFile(name.toString()) &&
+							AppUtils.isImageContent(path.toFile()))
+							imageFound(path);
+					}
+				}
+			}
+			catch(IOException | SecurityException e){
+				failedDirectories.incrementAndGet();
+			}
+
+			for(DirectoryTask task : subdirectories)
+				task.join();
+		}
+	}
+}
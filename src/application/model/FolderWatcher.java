@@ -0,0 +1,459 @@
+package application.model;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javafx.application.Platform;
+
+/**
+ *
+ * @author John Riley
+ * Keeps a playlist in sync with a folder tree while other programs add,
+ * delete and rename images in it. Every directory below the root is
+ * registered with a WatchService, and the events are collected on a
+ * background thread until the folder has been quiet for a moment, then
+ * applied to the playlist as one batch on the JavaFX application thread.
+ * A file deleted and created again within a batch is left alone, and a
+ * delete paired with a create in the same directory is taken as a rename,
+ * which keeps the entry where it was, as long as the new file was not
+ * written during the batch. New files are only added if their content is
+ * an image, whatever their name.
+ *
+ * The watcher is seeded with the paths the playlist already holds for the
+ * tree and keeps that set up to date, so only real differences ever reach
+ * the playlist. Registering the directories at the start, and again after
+ * events were lost, lists the tree and compares the listing with the set on
+ * the watch thread: images that arrived or went away in the meantime are
+ * reported, nothing known is read again. Symbolic links are not followed.
+ */
+public class FolderWatcher {
+
+	/* Events closer together than this are applied as one batch */
+	private static final long QUIET_MILLIS = 500;
+
+	/* A folder that never goes quiet is still applied this often */
+	private static final long MAX_DELAY_MILLIS = 3000;
+
+	/**
+	 * Receives the changes to the playlist on the JavaFX application thread
+	 */
+	public interface WatchListener {
+		/**
+		 * @param changed Number of entries removed, renamed or added by the batch
+		 */
+		void onPlaylistChanged(int changed);
+
+		/**
+		 * @param failed true if the folder could not be watched, false if the watch was cancelled
+		 */
+		void onWatchStopped(boolean failed);
+	}
+
+	private final IndexedImagePlaylist playlist;
+	private final Path root;
+	private final WatchListener listener;
+
+	/* Only touched on the watch thread */
+	private final Map<WatchKey, Path> directories;
+	private final Map<Path, WatchKey> keys;
+	private final Map<String, Boolean> pending;
+	private final Set<String> removedFolders;
+	private final Set<String> known;
+	private Collection<String> seed;
+
+	private volatile WatchService watchService;
+	private volatile boolean cancelled, started;
+
+	/**
+	 * @param knownPaths Paths of the images below the root that are in the playlist
+	 * already, read on the watch thread, so they must not change after this call
+	 */
+	public FolderWatcher(IndexedImagePlaylist playlist, Path root, Collection<String> knownPaths,
+						WatchListener listener){
+		this.playlist = playlist;
+		this.root = root;
+		this.listener = listener;
+		this.seed = knownPaths;
+		this.known = new HashSet<String>();
+		this.directories = new HashMap<WatchKey, Path>();
+		this.keys = new HashMap<Path, WatchKey>();
+		this.pending = new LinkedHashMap<String, Boolean>();
+		this.removedFolders = new LinkedHashSet<String>();
+	}
+
+	/**
+	 * Starts watching the folder in the background
+	 */
+	public void start(){
+		if(started)
+			return;
+		started = true;
+
+		Thread thread = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				boolean failed = false;
+				try{
+					if(seed != null)
+						known.addAll(seed);
+					seed = null;
+					watchService = root.getFileSystem().newWatchService();
+					if(!cancelled){
+						//Images copied in or deleted after the playlist was filled but
+						//before the watch began show up as differences from the seed
+						rescan();
+						if(keys.isEmpty())
+							throw new IOException("Cannot watch " + root);
+						watch();
+					}
+				}
+				catch(IOException e){
+					failed = !cancelled;
+				}
+				catch(ClosedWatchServiceException | InterruptedException e){
+					//Cancelled
+				}
+				finally{
+					close();
+				}
+				finish(failed);
+			}
+		}, "folder-watch");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching, changes not applied yet are dropped
+	 */
+	public void cancel(){
+		cancelled = true;
+		close();
+	}
+
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	public Path getRoot(){
+		return root;
+	}
+
+	public IndexedImagePlaylist getPlaylist(){
+		return playlist;
+	}
+
+	private void watch() throws InterruptedException {
+		long firstPending = pending.isEmpty() ? 0 : System.currentTimeMillis();
+		while(!cancelled){
+			WatchKey key;
+			if(firstPending == 0){
+				key = watchService.take();
+			}
+			else{
+				long wait = Math.min(QUIET_MILLIS, firstPending + MAX_DELAY_MILLIS - System.currentTimeMillis());
+				key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+				if(key == null){
+					flush(firstPending);
+					firstPending = 0;
+					continue;
+				}
+			}
+
+			process(key);
+			if(firstPending == 0 && (!pending.isEmpty() || !removedFolders.isEmpty()))
+				firstPending = System.currentTimeMillis();
+		}
+	}
+
+	private void process(WatchKey key){
+		Path directory = directories.get(key);
+		for(WatchEvent<?> event : key.pollEvents()){
+			if(directory == null)
+				break;
+
+			if(event.kind() == OVERFLOW){
+				//Events were lost, compare the tree with what is known instead
+				rescan();
+				continue;
+			}
+
+			Path path = directory.resolve((Path) event.context());
+			if(event.kind() == ENTRY_CREATE){
+				if(Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+					register(path, null, null);
+				else
+					fileChanged(path, true);
+			}
+			else if(event.kind() == ENTRY_DELETE){
+				if(keys.containsKey(path))
+					folderRemoved(path);
+				else
+					fileChanged(path, false);
+			}
+		}
+
+		if(!key.reset()){
+			Path gone = directories.remove(key);
+			if(gone != null)
+				keys.remove(gone);
+		}
+	}
+
+	/**
+	 * Registers every directory of the tree and reports the images that are
+	 * not known as created and the known ones that are gone as deleted
+	 */
+	private void rescan(){
+		Set<String> seen = new HashSet<String>();
+		List<String> unreadable = new ArrayList<String>();
+		register(root, seen, unreadable);
+		if(cancelled)
+			return;
+		for(String imagePath : known){
+			if(!seen.contains(imagePath) && !startsWithAny(imagePath, unreadable))
+				fileChanged(imagePath, false);
+		}
+	}
+
+	/**
+	 * Watches a directory and every directory below it, reporting the images
+	 * inside that are not known yet as created
+	 * @param seen Receives the path of every image found, or null
+	 * @param unreadable Receives the folders that could not be listed, or null
+	 */
+	private void register(Path start, final Set<String> seen, final List<String> unreadable){
+		try{
+			Files.walkFileTree(start, new SimpleFileVisitor<Path>(){
+				@Override
+				public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+					if(cancelled)
+						return FileVisitResult.TERMINATE;
+					if(keys.containsKey(directory))
+						return FileVisitResult.CONTINUE;
+
+					try{
+						WatchKey key = directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+						directories.put(key, directory);
+						keys.put(directory, key);
+					}
+					catch(IOException e){
+						//Unreadable, its images are left alone
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+					Path name = file.getFileName();
+					if(!attributes.isRegularFile() || name == null || !AppUtils.isImageFile(name.toString()))
+						return FileVisitResult.CONTINUE;
+
+					String imagePath = toImagePath(file);
+					if(seen != null)
+						seen.add(imagePath);
+					if(!known.contains(imagePath))
+						fileChanged(imagePath, true);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					//Whatever is in there may still exist
+					if(unreadable != null)
+						unreadable.add(toFolderPrefix(file));
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch(IOException e){
+			//Gone again before it could be walked
+		}
+	}
+
+	/**
+	 * Records the latest state of a file, a later event for the same file
+	 * within the batch replaces an earlier one
+	 */
+	private void fileChanged(Path file, boolean exists){
+		Path name = file.getFileName();
+		if(name != null && AppUtils.isImageFile(name.toString()))
+			fileChanged(toImagePath(file), exists);
+	}
+
+	private void fileChanged(String imagePath, boolean exists){
+		pending.remove(imagePath);
+		pending.put(imagePath, exists);
+	}
+
+	private void folderRemoved(Path folder){
+		List<Path> below = new ArrayList<Path>();
+		for(Path directory : keys.keySet()){
+			if(directory.startsWith(folder))
+				below.add(directory);
+		}
+		for(Path directory : below)
+			directories.remove(keys.remove(directory));
+
+		removedFolders.add(toFolderPrefix(folder));
+	}
+
+	private static String toFolderPrefix(Path folder){
+		String prefix = toImagePath(folder);
+		return prefix.endsWith("/") ? prefix : prefix + "/";
+	}
+
+	private static boolean startsWithAny(String imagePath, List<String> prefixes){
+		for(String prefix : prefixes){
+			if(imagePath.startsWith(prefix))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Builds the path the playlist stores for a file, the same way the importer does
+	 */
+	private static String toImagePath(Path file){
+		return AppUtils.getImageFileName(file.toFile());
+	}
+
+	/**
+	 * Hands the collected changes to the application thread and starts a new batch
+	 * @param batchStart When the first event of the batch arrived
+	 */
+	private void flush(long batchStart){
+		final Set<String> removed = new LinkedHashSet<String>();
+		final Set<String> added = new LinkedHashSet<String>();
+		for(Map.Entry<String, Boolean> entry : pending.entrySet()){
+			String imagePath = entry.getKey();
+			//Files replaced in place keep their entry, files never added have none
+			if(entry.getValue() == known.contains(imagePath))
+				continue;
+			if(!entry.getValue())
+				removed.add(imagePath);
+			//Sniffed only now, a file may still have been empty when it was created
+			else if(AppUtils.isImageContent(AppUtils.toFile(imagePath)))
+				added.add(imagePath);
+		}
+		final Map<String, String> renamed = pairRenames(removed, added, batchStart);
+		final List<String> folders = new ArrayList<String>(removedFolders);
+		pending.clear();
+		removedFolders.clear();
+
+		known.removeAll(removed);
+		known.addAll(added);
+		for(Map.Entry<String, String> entry : renamed.entrySet()){
+			known.remove(entry.getKey());
+			known.add(entry.getValue());
+		}
+		if(!folders.isEmpty()){
+			Iterator<String> it = known.iterator();
+			while(it.hasNext()){
+				if(startsWithAny(it.next(), folders))
+					it.remove();
+			}
+		}
+
+		if(removed.isEmpty() && added.isEmpty() && renamed.isEmpty() && folders.isEmpty())
+			return;
+
+		Platform.runLater(new Runnable(){
+			@Override
+			public void run() {
+				if(cancelled)
+					return;
+				int changed = playlist.applyChanges(removed, folders, renamed, added);
+				if(changed > 0)
+					listener.onPlaylistChanged(changed);
+			}
+		});
+	}
+
+	/**
+	 * A directory that lost exactly one image and gained exactly one in the
+	 * same batch had it renamed, unless the new one was written since the
+	 * batch started, which makes it a replacement. The pairs are taken out of
+	 * removed and added.
+	 * @return New path by old path
+	 */
+	private static Map<String, String> pairRenames(Set<String> removed, Set<String> added, long batchStart){
+		Map<String, String> removedByDirectory = new HashMap<String, String>();
+		Map<String, String> addedByDirectory = new HashMap<String, String>();
+		Set<String> ambiguous = new LinkedHashSet<String>();
+		collectByDirectory(removed, removedByDirectory, ambiguous);
+		collectByDirectory(added, addedByDirectory, ambiguous);
+
+		Map<String, String> renamed = new LinkedHashMap<String, String>();
+		for(Map.Entry<String, String> entry : removedByDirectory.entrySet()){
+			String newPath = addedByDirectory.get(entry.getKey());
+			if(newPath == null || ambiguous.contains(entry.getKey()) || !modifiedBefore(newPath, batchStart))
+				continue;
+			renamed.put(entry.getValue(), newPath);
+			removed.remove(entry.getValue());
+			added.remove(newPath);
+		}
+		return renamed;
+	}
+
+	private static boolean modifiedBefore(String imagePath, long time){
+		File file = AppUtils.toFile(imagePath);
+		long modified = file != null ? file.lastModified() : 0;
+		//Allow for file systems that keep modification times to the second or coarser
+		return modified > 0 && modified < time - 2000;
+	}
+
+	private static void collectByDirectory(Set<String> paths, Map<String, String> byDirectory, Set<String> ambiguous){
+		for(String path : paths){
+			String directory = path.substring(0, path.lastIndexOf('/') + 1);
+			if(byDirectory.put(directory, path) != null)
+				ambiguous.add(directory);
+		}
+	}
+
+	private void close(){
+		WatchService service = watchService;
+		if(service == null)
+			return;
+		try{
+			service.close();
+		}
+		catch(IOException e){
+			//Nothing left to release
+		}
+	}
+
+	private void finish(final boolean failed){
+		Platform.runLater(new Runnable(){
+			@Override
+			public void run() {
+				listener.onWatchStopped(failed);
+			}
+		});
+	}
+}
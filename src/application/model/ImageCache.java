@@ -0,0 +1,143 @@
+package application.model;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javafx.scene.image.Image;
+
+/**
+ *
+ * @author John Riley
+ * Least recently used cache of decoded images. The cache is bounded by the
+ * number of bytes the decoded pixels occupy rather than by entry count, since
+ * a single full resolution photo can outweigh thousands of thumbnails.
+ */
+public class ImageCache {
+
+	/* Decoded images are stored as 32 bit pixels */
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private final LinkedHashMap<String, Image> images;
+	private final long maxBytes;
+	private long currentBytes;
+
+	private long hitCount, missCount, evictionCount;
+
+	public ImageCache(long maxBytes){
+		this.maxBytes = maxBytes;
+		this.currentBytes = 0;
+		//Access order turns iteration order into least to most recently used
+		this.images = new LinkedHashMap<String, Image>(64, 0.75f, true);
+	}
+
+	/**
+	 * @param key
+	 * @return The cached image, or null if it has not been decoded or was evicted
+	 */
+	public synchronized Image get(String key){
+		Image image = key != null ? images.get(key) : null;
+		if(image != null)
+			hitCount++;
+		else
+			missCount++;
+
+		return image;
+	}
+
+	public synchronized boolean contains(String key){
+		return key != null && images.containsKey(key);
+	}
+
+	/**
+	 * Adds the image, evicting the least recently used entries until it fits.
+	 * Images larger than the whole budget are not cached.
+	 * @param key
+	 * @param image
+	 * @return true if the image was cached
+	 */
+	public synchronized boolean put(String key, Image image){
+		if(key == null || image == null || image.isError())
+			return false;
+
+		long bytes = getByteSize(image);
+		if(bytes > maxBytes)
+			return false;
+
+		Image previous = images.put(key, image);
+		if(previous != null)
+			currentBytes -= getByteSize(previous);
+		currentBytes += bytes;
+
+		trim();
+		return true;
+	}
+
+	public synchronized void remove(String key){
+		Image image = images.remove(key);
+		if(image != null)
+			currentBytes -= getByteSize(image);
+	}
+
+	public synchronized void clear(){
+		images.clear();
+		currentBytes = 0;
+	}
+
+	public synchronized int size(){
+		return images.size();
+	}
+
+	public synchronized long getByteCount(){
+		return currentBytes;
+	}
+
+	public long getMaxBytes(){
+		return maxBytes;
+	}
+
+	public synchronized long getHitCount(){
+		return hitCount;
+	}
+
+	public synchronized long getMissCount(){
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount(){
+		return evictionCount;
+	}
+
+	public synchronized double getHitRate(){
+		long total = hitCount + missCount;
+		return total > 0 ? (double) hitCount / total : 0;
+	}
+
+	public synchronized void resetStatistics(){
+		hitCount = missCount = evictionCount = 0;
+	}
+
+	@Override
+	public synchronized String toString(){
+		return String.format("%d images, %d/%d KB, %d hits, %d misses, %d evictions",
+							images.size(), currentBytes / 1024, maxBytes / 1024,
+							hitCount, missCount, evictionCount);
+	}
+
+	private void trim(){
+		Iterator<Map.Entry<String, Image>> it = images.entrySet().iterator();
+		while(currentBytes > maxBytes && it.hasNext()){
+			Map.Entry<String, Image> eldest = it.next();
+			currentBytes -= getByteSize(eldest.getValue());
+			it.remove();
+			evictionCount++;
+		}
+	}
+
+	public static long getByteSize(Image image){
+		if(image == null)
+			return 0;
+
+		return (long) image.getWidth() * (long) image.getHeight() * BYTES_PER_PIXEL;
+	}
+}
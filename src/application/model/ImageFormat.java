@@ -0,0 +1,121 @@
+package application.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ *
+ * @author John Riley
+ * Image file formats told apart by the magic bytes at the start of the file
+ * rather than by the file name, so misnamed files are still recognized and
+ * files that only look like images by name are caught before decoding.
+ */
+public enum ImageFormat {
+	JPEG(true),
+	PNG(true),
+	GIF(true),
+	BMP(true),
+	/* Recognized, but JavaFX cannot decode them */
+	TIFF(false),
+	WEBP(false),
+	UNKNOWN(false);
+
+	/* Long enough for every signature and for the sizes in the PNG, GIF and BMP headers */
+	public static final int HEAD_SIZE = 32;
+
+	private final boolean supported;
+
+	private ImageFormat(boolean supported){
+		this.supported = supported;
+	}
+
+	/**
+	 * @return true if JavaFX can decode files of this format
+	 */
+	public boolean isSupported(){
+		return supported;
+	}
+
+	/**
+	 * @param channel
+	 * @return The first HEAD_SIZE bytes of the file, fewer if it is shorter
+	 * @throws IOException
+	 */
+	public static ByteBuffer readHead(FileChannel channel) throws IOException {
+		ByteBuffer head = ByteBuffer.allocate(HEAD_SIZE);
+		while(head.hasRemaining() && channel.read(head, head.position()) > 0);
+		head.flip();
+		return head;
+	}
+
+	/**
+	 * @param head The start of a file
+	 * @return The format the file is in, UNKNOWN if the bytes match no known format
+	 */
+	public static ImageFormat sniff(ByteBuffer head){
+		if(head.limit() >= 3 && u8(head, 0) == 0xFF && u8(head, 1) == 0xD8 && u8(head, 2) == 0xFF)
+			return JPEG;
+		if(startsWith(head, 0, "\u0089PNG\r\n\u001A\n"))
+			return PNG;
+		if(startsWith(head, 0, "GIF87a") || startsWith(head, 0, "GIF89a"))
+			return GIF;
+		if(startsWith(head, 0, "BM"))
+			return BMP;
+		if(startsWith(head, 0, "II*\0") || startsWith(head, 0, "MM\0*"))
+			return TIFF;
+		if(startsWith(head, 0, "RIFF") && startsWith(head, 8, "WEBP"))
+			return WEBP;
+		return UNKNOWN;
+	}
+
+	/**
+	 * Reads the pixel size from the header. JPEGs keep it in their frame
+	 * header, which comes after the EXIF block and is rarely inside the head,
+	 * those are read from the file with ExifThumbnailReader instead.
+	 * @param head The start of a file in this format
+	 * @return {width, height}, or null if the head does not hold it
+	 */
+	public int[] readDimensions(ByteBuffer head){
+		ByteBuffer buffer = head.duplicate();
+		int length = buffer.limit();
+		switch(this){
+			case JPEG:
+				return ExifThumbnailReader.getDimensions(buffer);
+			case PNG:
+				//IHDR is always the first chunk
+				if(length < 24)
+					return null;
+				buffer.order(ByteOrder.BIG_ENDIAN);
+				return new int[]{buffer.getInt(16), buffer.getInt(20)};
+			case GIF:
+				if(length < 10)
+					return null;
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				return new int[]{buffer.getShort(6) & 0xFFFF, buffer.getShort(8) & 0xFFFF};
+			case BMP:
+				if(length < 26)
+					return null;
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				//Bottom up bitmaps store a negative height
+				return new int[]{buffer.getInt(18), Math.abs(buffer.getInt(22))};
+			default:
+				return null;
+		}
+	}
+
+	private static int u8(ByteBuffer buffer, int index){
+		return buffer.get(index) & 0xFF;
+	}
+
+	private static boolean startsWith(ByteBuffer buffer, int offset, String signature){
+		if(buffer.limit() < offset + signature.length())
+			return false;
+		for(int i = 0; i < signature.length(); i++){
+			if(buffer.get(offset + i) != (byte) signature.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
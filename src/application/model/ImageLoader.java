@@ -0,0 +1,678 @@
+package application.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+/**
+ *
+ * @author John Riley
+ * Decodes images on a background executor and hands the results back to the
+ * JavaFX application thread. Every request is tied to a slot (usually the
+ * ImageView the image is meant for). A newer request for the same slot cancels
+ * the older one, so a stale decode never overwrites the image the user is on.
+ */
+public class ImageLoader {
+
+	/* Number of decoder threads used when none is specified */
+	public static final int DEFAULT_THREAD_COUNT = 2;
+
+	/* Bounding box used for thumbnails when the caller gives none */
+	public static final double DEFAULT_THUMBNAIL_SIZE = 64;
+
+	/* Byte budget of the thumbnail cache when none is specified */
+	public static final long DEFAULT_THUMBNAIL_CACHE_BYTES = 32L * 1024 * 1024;
+
+	/* Scaled images up to this many pixels count as thumbnails, larger ones as previews */
+	public static final double MAX_THUMBNAIL_PIXELS = 256 * 256;
+
+	/**
+	 * Receives the result of a load request on the JavaFX application thread
+	 */
+	public interface ImageCallback {
+		void onImageLoaded(Image image);
+		void onImageError(String imagePath);
+	}
+
+	/**
+	 * Receives an opened tiled image on the JavaFX application thread
+	 */
+	public interface TiledImageCallback {
+		/**
+		 * @param tiled The image, or null if its header could not be read
+		 */
+		void onTiledImageOpened(TiledImage tiled);
+	}
+
+	private final ExecutorService executor, prefetchExecutor;
+	private final Map<Object, LoadTask> pending;
+	private final Map<String, PrefetchTask> prefetches;
+	private final ImageCache imageCache, thumbnailCache;
+	private volatile PerformanceMonitor monitor;
+	private volatile ThumbnailStore thumbnailStore;
+	private volatile MetadataIndex metadataIndex;
+
+	public ImageLoader(){
+		this(DEFAULT_THREAD_COUNT);
+	}
+
+	/**
+	 * Full size images may use up to a quarter of the maximum heap
+	 * @param threadCount
+	 */
+	public ImageLoader(int threadCount){
+		this(threadCount, Runtime.getRuntime().maxMemory() / 4, DEFAULT_THUMBNAIL_CACHE_BYTES);
+	}
+
+	public ImageLoader(int threadCount, long imageCacheBytes, long thumbnailCacheBytes){
+		executor = Executors.newFixedThreadPool(Math.max(1, threadCount),
+												new DaemonThreadFactory("image-decoder"));
+		pending = new ConcurrentHashMap<Object, LoadTask>();
+		
+		//Prefetching gets its own low priority thread so it never delays a visible image
+		DaemonThreadFactory prefetchFactory = new DaemonThreadFactory("image-prefetch");
+		prefetchFactory.setPriority(Thread.MIN_PRIORITY);
+		prefetchExecutor = Executors.newSingleThreadExecutor(prefetchFactory);
+		prefetches = new ConcurrentHashMap<String, PrefetchTask>();
+		
+		imageCache = new ImageCache(imageCacheBytes);
+		thumbnailCache = new ImageCache(thumbnailCacheBytes);
+	}
+
+	/**
+	 * Decodes the image in the background and passes it to the callback,
+	 * unless another request is made for the same slot in the meantime
+	 * @param slot Key identifying where the image will be displayed
+	 * @param imagePath URL of the image to decode
+	 * @param callback Invoked on the JavaFX application thread
+	 */
+	public void load(Object slot, String imagePath, ImageCallback callback){
+		load(slot, imagePath, 0, 0, callback);
+	}
+
+	/**
+	 * Same as load, but the image is scaled down while decoding so only a
+	 * thumbnail sized bitmap is ever held in memory
+	 * @param slot Key identifying where the image will be displayed
+	 * @param imagePath URL of the image to decode
+	 * @param width Bounding width of the thumbnail
+	 * @param height Bounding height of the thumbnail
+	 * @param callback Invoked on the JavaFX application thread
+	 */
+	public void loadThumbnail(Object slot, String imagePath, double width, double height,
+								ImageCallback callback){
+		if(width <= 0 || height <= 0)
+			width = height = DEFAULT_THUMBNAIL_SIZE;
+
+		load(slot, imagePath, width, height, callback);
+	}
+
+	/**
+	 * Decodes the full size image on the calling thread, going through the
+	 * cache like load does. Meant for callers that run their own background
+	 * threads, such as the slideshow engine.
+	 * @param imagePath URL of the image to decode
+	 * @return The decoded image
+	 * @throws IOException If the image could not be decoded
+	 */
+	public Image loadNow(String imagePath) throws IOException {
+		String key = getCacheKey(imagePath, 0, 0);
+		Image image = imageCache.get(key);
+		if(image != null)
+			return image;
+
+		image = timedDecode(imagePath, 0, 0);
+		if(image == null || image.isError())
+			throw new IOException("Unable to decode " + imagePath);
+
+		imageCache.put(key, image);
+		return image;
+	}
+
+	/**
+	 * Loads a preview scaled down to fit the given box, which decodes much
+	 * faster than the full image when the image is a lot larger than the screen.
+	 * Images that already fit the box are loaded at full resolution instead,
+	 * as is anything whose size cannot be read up front.
+	 * @param slot Key identifying where the image will be displayed
+	 * @param imagePath URL of the image to decode
+	 * @param width Bounding width of the preview
+	 * @param height Bounding height of the preview
+	 * @param callback Invoked on the JavaFX application thread
+	 */
+	public void loadPreview(Object slot, String imagePath, double width, double height,
+							ImageCallback callback){
+		if(width <= 0 || height <= 0){
+			load(slot, imagePath, callback);
+			return;
+		}
+
+		//Nothing beats a full image that is already decoded
+		Image full = imageCache.get(getCacheKey(imagePath, 0, 0));
+		if(full != null && slot != null && callback != null){
+			cancel(slot);
+			callback.onImageLoaded(full);
+			return;
+		}
+
+		load(slot, imagePath, Math.round(width), Math.round(height), true, callback);
+	}
+
+	protected void load(Object slot, String imagePath, double width, double height,
+						ImageCallback callback){
+		load(slot, imagePath, width, height, false, callback);
+	}
+
+	private void load(Object slot, String imagePath, double width, double height,
+						boolean preview, ImageCallback callback){
+		if(slot == null || imagePath == null || callback == null)
+			return;
+
+		//Cache hits are handed over immediately without touching the disk
+		Image cached = getCache(width, height).get(getCacheKey(imagePath, width, height));
+		if(cached != null){
+			cancel(slot);
+			callback.onImageLoaded(cached);
+			return;
+		}
+
+		LoadTask task = new LoadTask(slot, imagePath, width, height, preview, callback);
+		LoadTask previous = pending.put(slot, task);
+		if(previous != null)
+			previous.cancel();
+
+		task.future = executor.submit(task);
+	}
+
+	/**
+	 * Decodes a thumbnail on the calling thread straight into the thumbnail
+	 * store, unless the store has it already, and waits for it to be written.
+	 * Nothing is cached in memory and nothing is reported to the monitor, the
+	 * image is not on screen.
+	 * @param imagePath URL of the image
+	 * @param width Bounding width of the thumbnail
+	 * @param height Bounding height of the thumbnail
+	 * @throws InterruptedException
+	 */
+	public void storeThumbnail(String imagePath, double width, double height) throws InterruptedException {
+		ThumbnailStore store = thumbnailStore;
+		if(store == null || imagePath == null || store.contains(imagePath, width, height))
+			return;
+
+		Future<?> write;
+		try{
+			Image image = decode(imagePath, width, height);
+			write = image != null && !image.isError() ? store.put(imagePath, width, height, image) : null;
+		}
+		catch(Exception e){
+			return;
+		}
+		try{
+			if(write != null)
+				write.get();
+		}
+		catch(ExecutionException e){
+			//The store is only a cache
+		}
+	}
+
+	/**
+	 * Reads the header of an image on the decoder threads, so a slow disk
+	 * never holds up the application thread
+	 * @param imagePath URL of the image to open
+	 * @param callback Invoked on the JavaFX application thread
+	 */
+	public void openTiled(final String imagePath, final TiledImageCallback callback){
+		if(imagePath == null || callback == null)
+			return;
+
+		executor.submit(new Runnable(){
+			@Override
+			public void run() {
+				final TiledImage tiled = TiledImage.open(imagePath);
+				Platform.runLater(new Runnable(){
+					@Override
+					public void run() {
+						callback.onTiledImageOpened(tiled);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Cancels the outstanding request for the slot, if any
+	 * @param slot
+	 */
+	public void cancel(Object slot){
+		if(slot == null)
+			return;
+
+		LoadTask task = pending.remove(slot);
+		if(task != null)
+			task.cancel();
+	}
+
+	/**
+	 * Replaces the queued prefetches with the given images. Images that are
+	 * already cached or still queued are left alone, queued images that are
+	 * no longer wanted are dropped before they are decoded.
+	 * @param imagePaths Images to decode into the cache, most urgent first
+	 * @param thumbnailWidth Also prefetch thumbnails of this size, 0 for none
+	 * @param thumbnailHeight
+	 */
+	public void prefetch(List<String> imagePaths, double thumbnailWidth, double thumbnailHeight){
+		prefetch(imagePaths, 0, 0, thumbnailWidth, thumbnailHeight);
+	}
+	
+	/**
+	 * Same as prefetch, but prepares previews the way loadPreview would
+	 * instead of full size images
+	 * @param previewWidth Bounding width of the previews, 0 for full size images
+	 * @param previewHeight
+	 */
+	public void prefetch(List<String> imagePaths, double previewWidth, double previewHeight,
+						double thumbnailWidth, double thumbnailHeight){
+		boolean preview = previewWidth > 0 && previewHeight > 0;
+		if(preview){
+			previewWidth = Math.round(previewWidth);
+			previewHeight = Math.round(previewHeight);
+		}
+		
+		Set<String> wanted = new HashSet<String>();
+		if(imagePaths != null){
+			for(String imagePath : imagePaths){
+				if(imagePath == null)
+					continue;
+				
+				if(preview && !imageCache.contains(getCacheKey(imagePath, 0, 0)))
+					queuePrefetch(wanted, imagePath, previewWidth, previewHeight, true);
+				else
+					queuePrefetch(wanted, imagePath, 0, 0, false);
+				if(thumbnailWidth > 0 && thumbnailHeight > 0)
+					queuePrefetch(wanted, imagePath, thumbnailWidth, thumbnailHeight, false);
+			}
+		}
+		
+		Iterator<Map.Entry<String, PrefetchTask>> it = prefetches.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<String, PrefetchTask> entry = it.next();
+			if(!wanted.contains(entry.getKey())){
+				entry.getValue().cancel();
+				it.remove();
+			}
+		}
+	}
+	
+	public void cancelPrefetches(){
+		prefetch(null, 0, 0);
+	}
+	
+	private void queuePrefetch(Set<String> wanted, String imagePath, double width, double height,
+								boolean preview){
+		String key = getCacheKey(imagePath, width, height);
+		wanted.add(key);
+		if(prefetches.containsKey(key) || getCache(width, height).contains(key))
+			return;
+		
+		PrefetchTask task = new PrefetchTask(key, imagePath, width, height, preview);
+		prefetches.put(key, task);
+		task.future = prefetchExecutor.submit(task);
+	}
+
+	public boolean isPending(Object slot){
+		return slot != null && pending.containsKey(slot);
+	}
+
+	/**
+	 * Decode times and sizes are reported to the monitor
+	 * @param monitor
+	 */
+	public void setMonitor(PerformanceMonitor monitor){
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Thumbnails are looked up in the store before decoding, and stored after
+	 * @param thumbnailStore The store, or null to always decode
+	 */
+	public void setThumbnailStore(ThumbnailStore thumbnailStore){
+		this.thumbnailStore = thumbnailStore;
+	}
+	
+	public ThumbnailStore getThumbnailStore(){
+		return thumbnailStore;
+	}
+	
+	/**
+	 * @param metadataIndex Consulted for image sizes before the file header is read
+	 */
+	public void setMetadataIndex(MetadataIndex metadataIndex){
+		this.metadataIndex = metadataIndex;
+	}
+	
+	public MetadataIndex getMetadataIndex(){
+		return metadataIndex;
+	}
+	
+	/**
+	 * @return The cache holding full resolution images
+	 */
+	public ImageCache getImageCache(){
+		return imageCache;
+	}
+
+	public ImageCache getThumbnailCache(){
+		return thumbnailCache;
+	}
+
+	public void shutdown(){
+		for(LoadTask task : pending.values())
+			task.cancel();
+		pending.clear();
+		executor.shutdownNow();
+		cancelPrefetches();
+		prefetchExecutor.shutdownNow();
+		imageCache.clear();
+		thumbnailCache.clear();
+	}
+
+	/**
+	 * Thumbnails get a cache of their own, previews share the full size cache
+	 * so a few of them cannot push out every thumbnail
+	 */
+	protected ImageCache getCache(double width, double height){
+		return isThumbnailSize(width, height) ? thumbnailCache : imageCache;
+	}
+
+	/**
+	 * @return true if the image was decoded at the full size of its file, as
+	 * loadPreview does for images that already fit the box, false for previews
+	 */
+	public static boolean isFullResolution(Image image){
+		return image.getRequestedWidth() <= 0 && image.getRequestedHeight() <= 0;
+	}
+
+	protected static boolean isThumbnailSize(double width, double height){
+		return width > 0 && height > 0 && width * height <= MAX_THUMBNAIL_PIXELS;
+	}
+
+	/**
+	 * Decides whether a preview should be the full image after all: scaling
+	 * would only blow up an image that already fits the box, and an image of
+	 * unknown size is not worth the risk
+	 */
+	protected boolean fitsWithin(String imagePath, double width, double height){
+		MetadataIndex index = metadataIndex;
+		ImageMetadata metadata = index != null ? index.get(imagePath) : null;
+		if(metadata != null && metadata.hasDimensions())
+			return metadata.getWidth() <= width && metadata.getHeight() <= height;
+		
+		int[] size = readDimensions(imagePath);
+		return size == null || (size[0] <= width && size[1] <= height);
+	}
+
+	/**
+	 * Reads the pixel size of an image from its header without decoding it
+	 * @param imagePath
+	 * @return {width, height}, or null if the size could not be read
+	 */
+	protected static int[] readDimensions(String imagePath){
+		File file = AppUtils.toFile(imagePath);
+		if(file == null || !file.isFile())
+			return null;
+
+		try(ImageInputStream in = ImageIO.createImageInputStream(file)){
+			Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+			if(readers == null || !readers.hasNext())
+				return null;
+
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(in, true, true);
+				return new int[]{reader.getWidth(0), reader.getHeight(0)};
+			}
+			finally{
+				reader.dispose();
+			}
+		}
+		catch(IOException | RuntimeException e){
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes the image, reporting the time it took to the monitor
+	 */
+	protected Image timedDecode(String imagePath, double width, double height){
+		//Thumbnails kept from an earlier run are read back instead of decoded
+		ThumbnailStore store = isThumbnailSize(width, height) ? thumbnailStore : null;
+		if(store != null){
+			Image stored = store.get(imagePath, width, height);
+			if(stored != null)
+				return stored;
+		}
+		
+		long start = System.nanoTime();
+		Image image = decode(imagePath, width, height);
+		
+		PerformanceMonitor m = monitor;
+		if(m != null && image != null && !image.isError())
+			m.recordDecode(System.nanoTime() - start, ImageCache.getByteSize(image));
+		
+		if(store != null && image != null && !image.isError())
+			store.put(imagePath, width, height, image);
+		return image;
+	}
+
+	protected static String getCacheKey(String imagePath, double width, double height){
+		if(width > 0 && height > 0)
+			return imagePath + '@' + (int) width + 'x' + (int) height;
+
+		return imagePath;
+	}
+
+	/**
+	 * @param imagePath
+	 * @param width Requested width, or 0 for the full resolution image
+	 * @param height Requested height, or 0 for the full resolution image
+	 * @return The decoded image
+	 */
+	protected Image decode(String imagePath, double width, double height){
+		if(width > 0 && height > 0){
+			Image embedded = decodeEmbeddedThumbnail(imagePath, width, height);
+			if(embedded != null)
+				return embedded;
+			return new Image(imagePath, width, height, true, true);
+		}
+
+		return new Image(imagePath);
+	}
+
+	/**
+	 * Decodes the preview stored in the EXIF block of a JPEG, which only takes
+	 * reading the first few kilobytes of the file
+	 * @return The preview scaled to the requested size, or null if the file has
+	 * none that is at least that large
+	 */
+	protected Image decodeEmbeddedThumbnail(String imagePath, double width, double height){
+		if(!ExifThumbnailReader.isJpeg(imagePath))
+			return null;
+
+		File file = AppUtils.toFile(imagePath);
+		if(file == null || !file.isFile())
+			return null;
+
+		byte[] jpeg = ExifThumbnailReader.read(file);
+		int[] size = jpeg != null ? ExifThumbnailReader.getDimensions(jpeg) : null;
+
+		//Scaling a small preview up looks worse than decoding the real image down
+		if(size == null || (size[0] < width && size[1] < height))
+			return null;
+
+		Image image = new Image(new ByteArrayInputStream(jpeg), width, height, true, true);
+		return image.isError() ? null : image;
+	}
+
+	private void deliver(LoadTask task, Image image){
+		//Only the latest request for a slot is allowed to reach the callback
+		if(task.cancelled || !pending.remove(task.slot, task))
+			return;
+
+		if(image == null || image.isError())
+			task.callback.onImageError(task.imagePath);
+		else
+			task.callback.onImageLoaded(image);
+	}
+
+	private class LoadTask implements Runnable {
+		final Object slot;
+		final String imagePath;
+		final double width, height;
+		final boolean preview;
+		final ImageCallback callback;
+
+		volatile boolean cancelled;
+		volatile Future<?> future;
+
+		LoadTask(Object slot, String imagePath, double width, double height,
+				boolean preview, ImageCallback callback){
+			this.slot = slot;
+			this.imagePath = imagePath;
+			this.width = width;
+			this.height = height;
+			this.preview = preview;
+			this.callback = callback;
+		}
+
+		void cancel(){
+			cancelled = true;
+			Future<?> f = future;
+			if(f != null)
+				f.cancel(false);
+		}
+
+		@Override
+		public void run() {
+			if(cancelled)
+				return;
+
+			double w = width, h = height;
+			if(preview && fitsWithin(imagePath, w, h))
+				w = h = 0;
+
+			Image image;
+			try{
+				image = timedDecode(imagePath, w, h);
+			}
+			catch(Exception e){
+				image = null;
+			}
+
+			if(image != null)
+				getCache(w, h).put(getCacheKey(imagePath, w, h), image);
+
+			if(cancelled)
+				return;
+
+			final Image result = image;
+			Platform.runLater(new Runnable(){
+				@Override
+				public void run() {
+					deliver(LoadTask.this, result);
+				}
+			});
+		}
+	}
+
+	private class PrefetchTask implements Runnable {
+		final String key;
+		final String imagePath;
+		final double width, height;
+		final boolean preview;
+		
+		volatile boolean cancelled;
+		volatile Future<?> future;
+		
+		PrefetchTask(String key, String imagePath, double width, double height, boolean preview){
+			this.key = key;
+			this.imagePath = imagePath;
+			this.width = width;
+			this.height = height;
+			this.preview = preview;
+		}
+		
+		void cancel(){
+			cancelled = true;
+			Future<?> f = future;
+			if(f != null)
+				f.cancel(false);
+		}
+		
+		@Override
+		public void run() {
+			try{
+				ImageCache cache = getCache(width, height);
+				if(!cancelled && !cache.contains(key)){
+					double w = width, h = height;
+					if(preview && fitsWithin(imagePath, w, h))
+						w = h = 0;
+					
+					Image image = timedDecode(imagePath, w, h);
+					if(image != null && !cancelled)
+						getCache(w, h).put(getCacheKey(imagePath, w, h), image);
+				}
+			}
+			catch(Exception e){
+				//Prefetching is best effort, the foreground load reports the error
+			}
+			finally{
+				prefetches.remove(key, this);
+			}
+		}
+	}
+
+	/**
+	 * Background threads must never keep the application alive after the stage closes
+	 */
+	static class DaemonThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+		private int priority = Thread.NORM_PRIORITY;
+
+		DaemonThreadFactory(String prefix){
+			this.prefix = prefix;
+		}
+
+		void setPriority(int priority){
+			this.priority = priority;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(priority);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package application.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ *
+ * @author John Riley
+ * What is known about an image file without decoding it: the format from
+ * its magic bytes, the pixel size from its header, the file size and
+ * modification time, and for photos the capture time from the EXIF block.
+ * The format is sniffed from the first few bytes, which also hold the size
+ * of every format but JPEG. Only JPEGs are read further, segment by segment
+ * up to the EXIF block and the frame header.
+ */
+public class ImageMetadata {
+
+	private final ImageFormat format;
+	private final int width, height;
+	private final long size, lastModified, captureTime;
+
+	/**
+	 * @param width -1 if unknown
+	 * @param height -1 if unknown
+	 * @param captureTime -1 if unknown
+	 */
+	public ImageMetadata(ImageFormat format, int width, int height, long size, long lastModified,
+						long captureTime){
+		this.format = format;
+		this.width = width;
+		this.height = height;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.captureTime = captureTime;
+	}
+
+	/**
+	 * Reads the header block of a file
+	 * @param file
+	 * @return The metadata, with format UNKNOWN if the file is not an image
+	 * @throws IOException If the file cannot be read
+	 */
+	public static ImageMetadata read(File file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		if(!attributes.isRegularFile())
+			throw new IOException("Not a file: " + file);
+
+		ImageFormat format;
+		int[] dimensions;
+		long captureTime = -1;
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			ByteBuffer head = ImageFormat.readHead(channel);
+			format = ImageFormat.sniff(head);
+			if(format == ImageFormat.JPEG){
+				dimensions = ExifThumbnailReader.readDimensions(channel);
+				ByteBuffer tiff = ExifThumbnailReader.readTiff(channel);
+				if(tiff != null)
+					captureTime = ExifThumbnailReader.readCaptureTime(tiff);
+			}
+			else{
+				dimensions = format.readDimensions(head);
+			}
+		}
+
+		return new ImageMetadata(format,
+								dimensions != null ? dimensions[0] : -1,
+								dimensions != null ? dimensions[1] : -1,
+								attributes.size(),
+								attributes.lastModifiedTime().toMillis(),
+								captureTime);
+	}
+
+	public ImageFormat getFormat(){
+		return format;
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	public boolean hasDimensions(){
+		return width > 0 && height > 0;
+	}
+
+	public long getSize(){
+		return size;
+	}
+
+	public long getLastModified(){
+		return lastModified;
+	}
+
+	public long getCaptureTime(){
+		return captureTime;
+	}
+
+	/**
+	 * @return true if the file still has the size and modification time this was read at
+	 */
+	public boolean matches(long size, long lastModified){
+		return this.size == size && this.lastModified == lastModified;
+	}
+
+	@Override
+	public String toString(){
+		return String.format("%s %dx%d, %d bytes", format, width, height, size);
+	}
+}
@@ -2,7 +2,6 @@ package application.model;
 
 import java.io.File;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -19,14 +18,15 @@ public class ImagePlaylist implements Serializable{
 	/* Serialized Image Playlist File Extension */
 	public static final String FILE_EXTENSION = ".sip";
 	
+	/* Entries are kept in a CompactPathList unless the playlist was opened from a file */
 	protected List<String> imageFiles;
 	
 	public ImagePlaylist(){
-		imageFiles = new ArrayList<String>();
+		imageFiles = new CompactPathList();
 	}
 	
 	public ImagePlaylist(int initialSize){
-		imageFiles = new ArrayList<String>(initialSize);
+		imageFiles = new CompactPathList(initialSize);
 	}
 	
 	public boolean isEmpty(){
@@ -51,12 +51,15 @@ public class ImagePlaylist implements Serializable{
 	}
 	
 	public void clear(){
-		imageFiles.clear();
+		if(imageFiles instanceof MappedPathList)
+			imageFiles = new CompactPathList();
+		else
+			imageFiles.clear();
 	}
 	
 	public void remove(int index){
 		if(isGoodIndex(index))
-			imageFiles.remove(index);
+			removeEntry(index);
 	}
 	
 	/**
@@ -66,7 +69,7 @@ public class ImagePlaylist implements Serializable{
 	 */
 	public boolean add(String filePath){
 		if(filePath != null && AppUtils.isImageFile(filePath)){
-			imageFiles.add(filePath);
+			appendEntry(filePath);
 			return true;
 		}
 		else{
@@ -78,7 +81,7 @@ public class ImagePlaylist implements Serializable{
 		if(isGoodFile(file)){
 			String str = AppUtils.getImageFileName(file);
 			if(str != null){
-				imageFiles.add(str);
+				appendEntry(str);
 				return true;
 			}
 			else{
@@ -94,7 +97,7 @@ public class ImagePlaylist implements Serializable{
 		if(isGoodIndex(index) && isGoodFile(file)){
 			String str = AppUtils.getImageFileName(file);
 			if(str != null){
-				imageFiles.add(index, str);
+				insertEntry(index, str);
 				return true;
 			}
 			else{
@@ -111,11 +114,10 @@ public class ImagePlaylist implements Serializable{
 			boolean flag = true;
 			for(String filePath : filePaths){
 				if(filePath != null && AppUtils.isImageFile(filePath))
-					imageFiles.add(filePath);	
+					appendEntry(filePath);
 				else
 					flag = false;
 			}
-			imageFiles.addAll(filePaths);
 			
 			return flag;
 		}
@@ -129,10 +131,10 @@ public class ImagePlaylist implements Serializable{
 			String str;
 			boolean flag = true;
 			for(File file : files){
-				if(AppUtils.isImageFile(file)){
+				if(isGoodFile(file)){
 					str = AppUtils.getImageFileName(file);
 					if(str != null)
-						imageFiles.add(str);
+						appendEntry(str);
 					else
 						flag = false;
 				}
@@ -153,10 +155,10 @@ public class ImagePlaylist implements Serializable{
 			String str;
 			boolean flag = true;
 			for(File file : files){
-				if(AppUtils.isImageFile(file)){
+				if(isGoodFile(file)){
 					str = AppUtils.getImageFileName(file);
 					if(str != null)
-						imageFiles.add(str);
+						appendEntry(str);
 					else
 						flag = false;
 				}
@@ -172,6 +174,90 @@ public class ImagePlaylist implements Serializable{
 		}
 	}
 	
+	/*-------------------Entry Modification Hooks---------------------*/
+	
+	protected void appendEntry(String filePath){
+		List<String> files = mutableFiles();
+		files.add(filePath);
+		entryInserted(files.size() - 1);
+	}
+	
+	protected void insertEntry(int index, String filePath){
+		mutableFiles().add(index, filePath);
+		entryInserted(index);
+	}
+	
+	protected String removeEntry(int index){
+		String filePath = mutableFiles().remove(index);
+		entryRemoved(index);
+		return filePath;
+	}
+	
+	/**
+	 * Removes several entries in one pass over the list rather than one
+	 * shift of the list per entry
+	 * @param indexes Indexes of the entries, in ascending order without repeats
+	 */
+	protected void removeEntries(int[] indexes){
+		if(indexes.length == 0)
+			return;
+		
+		List<String> files = mutableFiles();
+		if(files instanceof CompactPathList){
+			((CompactPathList) files).removeEntries(indexes);
+		}
+		else{
+			int next = 0, j = indexes[0];
+			for(int i = indexes[0]; i < files.size(); i++){
+				if(next < indexes.length && indexes[next] == i)
+					next++;
+				else
+					files.set(j++, files.get(i));
+			}
+			files.subList(j, files.size()).clear();
+		}
+		entriesRemoved(indexes);
+	}
+	
+	/**
+	 * Playlists opened from a file are read straight from the file mapping.
+	 * The entries are copied to the heap the first time the playlist is edited.
+	 * @return The list of entries, safe to modify
+	 */
+	protected List<String> mutableFiles(){
+		if(imageFiles instanceof MappedPathList)
+			imageFiles = new CompactPathList(imageFiles);
+		return imageFiles;
+	}
+	
+	/**
+	 * Called after an entry was added to the underlying list
+	 * @param index
+	 */
+	protected void entryInserted(int index){
+	}
+	
+	/**
+	 * Called after an entry was removed from the underlying list
+	 * @param index Index the entry occupied
+	 */
+	protected void entryRemoved(int index){
+	}
+	
+	/**
+	 * Called after several entries were removed from the underlying list at once
+	 * @param indexes Indexes the entries occupied, in ascending order
+	 */
+	protected void entriesRemoved(int[] indexes){
+		for(int i = indexes.length - 1; i >= 0; i--)
+			entryRemoved(indexes[i]);
+	}
+	
+	/**
+	 * Only looks at the name and the file type, this runs on the application
+	 * thread. The content is checked in the background, by the folder importer
+	 * and the playlist validator.
+	 */
 	protected boolean isGoodFile(File file){
 		return file != null && file.isFile() && AppUtils.isImageFile(file);
 	}
@@ -0,0 +1,136 @@
+package application.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author John Riley
+ * Watches the navigation of an IndexedImagePlaylist and decodes the images the
+ * user is about to reach. The browsing direction and stride come from the last
+ * move, and the number of images decoded ahead grows with how fast the user is
+ * moving through the playlist.
+ */
+public class ImagePrefetcher implements IndexedImagePlaylist.NavigationListener {
+
+	/* Images decoded ahead when the user is browsing slowly */
+	public static final int MIN_LOOKAHEAD = 2;
+
+	/* Seconds of browsing at the current speed to stay ahead by */
+	private static final double LOOKAHEAD_SECONDS = 1.5;
+
+	/* Pauses longer than this reset the measured velocity */
+	private static final long IDLE_NANOS = 3000000000L;
+
+	/* Weight given to the newest velocity sample */
+	private static final double SMOOTHING = 0.5;
+
+	private final ImageLoader imageLoader;
+	private final int maxLookahead;
+	private double thumbnailWidth, thumbnailHeight;
+	private double previewWidth, previewHeight;
+
+	private int direction, stride;
+	private double velocity;
+	private long lastNavigationTime;
+
+	public ImagePrefetcher(ImageLoader imageLoader, int maxLookahead){
+		this.imageLoader = imageLoader;
+		this.maxLookahead = Math.max(MIN_LOOKAHEAD, maxLookahead);
+		this.direction = 1;
+		this.stride = 1;
+		this.velocity = 0;
+		this.lastNavigationTime = 0;
+	}
+
+	/**
+	 * Thumbnails of the prefetched images are decoded at this size as well
+	 * @param width
+	 * @param height
+	 */
+	public void setThumbnailSize(double width, double height){
+		this.thumbnailWidth = width;
+		this.thumbnailHeight = height;
+	}
+
+	/**
+	 * Prefetched images are decoded as previews fitting this size rather than
+	 * at full resolution, 0 for full resolution
+	 * @param width
+	 * @param height
+	 */
+	public void setPreviewSize(double width, double height){
+		this.previewWidth = width;
+		this.previewHeight = height;
+	}
+
+	public int getDirection(){
+		return direction;
+	}
+
+	/**
+	 * @return Smoothed navigation speed in entries per second
+	 */
+	public double getVelocity(){
+		return velocity;
+	}
+
+	@Override
+	public void onNavigate(IndexedImagePlaylist playlist, int previousIndex, int step) {
+		if(step == 0 || playlist == null)
+			return;
+
+		long now = System.nanoTime();
+		int distance = Math.abs(step);
+		if(lastNavigationTime > 0 && now - lastNavigationTime < IDLE_NANOS){
+			double seconds = Math.max(now - lastNavigationTime, 1000000L) / 1e9;
+			velocity = SMOOTHING * (distance / seconds) + (1 - SMOOTHING) * velocity;
+		}
+		else{
+			velocity = 0;
+		}
+		lastNavigationTime = now;
+
+		direction = step > 0 ? 1 : -1;
+		//A long jump, like picking an image in the browser, is not a stride worth repeating
+		stride = distance > maxLookahead ? 1 : distance;
+
+		prefetch(playlist);
+	}
+
+	/**
+	 * Queues the images ahead of the current index in the browsing direction
+	 * @param playlist
+	 */
+	public void prefetch(IndexedImagePlaylist playlist){
+		imageLoader.prefetch(getUpcoming(playlist), previewWidth, previewHeight,
+							thumbnailWidth, thumbnailHeight);
+	}
+
+	public int getLookahead(){
+		int lookahead = MIN_LOOKAHEAD + (int) Math.ceil(velocity * LOOKAHEAD_SECONDS / stride);
+		return Math.min(lookahead, maxLookahead);
+	}
+
+	protected List<String> getUpcoming(IndexedImagePlaylist playlist){
+		int size = playlist.size();
+		int lookahead = Math.min(getLookahead(), size - 1);
+		List<String> upcoming = new ArrayList<String>(Math.max(lookahead, 0));
+
+		int index = playlist.currentIndex();
+		for(int i = 0; i < lookahead; i++){
+			index += direction * stride;
+			if(index < 0 || index >= size){
+				if(!playlist.isCircular())
+					break;
+				index = ((index % size) + size) % size;
+			}
+
+			if(index == playlist.currentIndex())
+				break;
+			upcoming.add(playlist.get(index));
+		}
+
+		return upcoming;
+	}
+}
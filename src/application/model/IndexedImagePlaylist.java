@@ -1,7 +1,16 @@
 package application.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 /**
  * 
@@ -14,6 +23,41 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 	private int currentIndex;
 	private boolean isCircular;
 	
+	/* Visiting order over imageFiles, null when entries are visited in list order */
+	private PlaylistOrder order;
+	
+	/* Set while the order comes from sortBy rather than a shuffle */
+	private boolean isSorted;
+	
+	private transient List<NavigationListener> navigationListeners;
+	
+	/* Bumped on every change to the entries or their order, so views know when to redraw */
+	private transient int version;
+
+	/* Changes only with the underlying list, not with the visiting order */
+	private transient int entryVersion;
+	
+	/* Entries found missing or unreadable, by index in imageFiles so shuffling keeps them */
+	private transient BitSet invalidEntries;
+	
+	/* Entries drawn more often by the weighted shuffle, by index in imageFiles */
+	private transient BitSet favoriteEntries;
+	
+	/* Metadata of the entries for sorting and filtering, by index in imageFiles */
+	private transient PlaylistColumns columns;
+	
+	/**
+	 * Notified whenever the index is moved by next, prev, forward or back
+	 */
+	public interface NavigationListener {
+		/**
+		 * @param playlist The playlist that was navigated
+		 * @param previousIndex Index before the move
+		 * @param step Signed number of entries requested, negative when moving backwards
+		 */
+		void onNavigate(IndexedImagePlaylist playlist, int previousIndex, int step);
+	}
+	
 	public IndexedImagePlaylist(){
 		super();
 		currentIndex = 0;
@@ -51,6 +95,45 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 		return currentIndex;
 	}
 	
+	public boolean isCircular(){
+		return isCircular;
+	}
+	
+	/**
+	 * @return A number that changes whenever entries are added, removed or reordered
+	 */
+	public int getVersion(){
+		return version;
+	}
+	
+	/**
+	 * @return A number that changes whenever entries are added, removed, renamed
+	 * or moved in the underlying list, but not when only the visiting order changes
+	 */
+	public int getEntryVersion(){
+		return entryVersion;
+	}
+	
+	public void addNavigationListener(NavigationListener listener){
+		if(listener == null)
+			return;
+		if(navigationListeners == null)
+			navigationListeners = new ArrayList<NavigationListener>(2);
+		navigationListeners.add(listener);
+	}
+	
+	public void removeNavigationListener(NavigationListener listener){
+		if(navigationListeners != null)
+			navigationListeners.remove(listener);
+	}
+	
+	protected void fireNavigation(int previousIndex, int step){
+		if(navigationListeners == null)
+			return;
+		for(NavigationListener listener : navigationListeners)
+			listener.onNavigate(this, previousIndex, step);
+	}
+	
 	public void resetIndex(){
 		currentIndex = 0;
 	}
@@ -59,8 +142,32 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 		return get(currentIndex);
 	}
 	
+	/**
+	 * @param position Position in the current visiting order
+	 * @return The entry at the given position
+	 */
+	public String get(int position){
+		if(order == null)
+			return super.get(position);
+		
+		if(position < 0 || position >= order.size())
+			return null;
+		return imageFiles.get(order.indexAt(position));
+	}
+	
+	public int size(){
+		return order != null ? order.size() : super.size();
+	}
+	
+	public boolean isEmpty(){
+		return size() == 0;
+	}
+	
 	public String getNext(int n){
 		int size = size();
+		if(hasInvalidEntries())
+			return get(walk(currentIndex, n, true));
+		
 		if((currentIndex + n) < size){
 			return get(currentIndex + n);
 		}
@@ -71,6 +178,9 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 	
 	public String getPrevious(int n){
 		int size = size();
+		if(hasInvalidEntries())
+			return get(walk(currentIndex, -n, true));
+		
 		if(currentIndex >= n){
 			return get(currentIndex - n);
 		}
@@ -79,17 +189,368 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 		}
 	}
 	
+	/**
+	 * Flags an entry as missing or unreadable, navigation skips it from then on
+	 * @param position Position in the current visiting order
+	 */
+	public void markInvalid(int position){
+		if(isGoodIndex(position))
+			markEntryInvalid(order != null ? order.indexAt(position) : position);
+	}
+	
+	/**
+	 * Same as markInvalid, for entries that may not be visible in the current order
+	 * @param index Index in the underlying list
+	 */
+	public void markEntryInvalid(int index){
+		if(index < 0 || index >= imageFiles.size())
+			return;
+		
+		if(invalidEntries == null)
+			invalidEntries = new BitSet();
+		invalidEntries.set(index);
+		if(order instanceof WeightedShuffleOrder)
+			((WeightedShuffleOrder) order).setExcluded(index, true);
+	}
+	
+	/**
+	 * @return Number of entries in the underlying list, whether the current order shows them or not
+	 */
+	public int entryCount(){
+		return imageFiles.size();
+	}
+	
+	/**
+	 * @param index Index in the underlying list
+	 * @return The entry, or null if there is none at that index
+	 */
+	public String getEntry(int index){
+		if(index < 0 || index >= imageFiles.size())
+			return null;
+		return imageFiles.get(index);
+	}
+	
+	/**
+	 * @param position Position in the current visiting order
+	 */
+	public boolean isInvalid(int position){
+		if(!hasInvalidEntries() || !isGoodIndex(position))
+			return false;
+		return invalidEntries.get(order != null ? order.indexAt(position) : position);
+	}
+	
+	public int getInvalidCount(){
+		return invalidEntries != null ? invalidEntries.cardinality() : 0;
+	}
+	
+	public boolean hasInvalidEntries(){
+		return invalidEntries != null && !invalidEntries.isEmpty();
+	}
+	
+	public void clearInvalid(){
+		if(order instanceof WeightedShuffleOrder && hasInvalidEntries()){
+			for(int i = invalidEntries.nextSetBit(0); i >= 0; i = invalidEntries.nextSetBit(i + 1))
+				((WeightedShuffleOrder) order).setExcluded(i, false);
+		}
+		invalidEntries = null;
+	}
+	
+	/**
+	 * Favorites are drawn more often when the playlist is shuffled by weight
+	 * @param position Position in the current visiting order
+	 */
+	public void setFavorite(int position, boolean favorite){
+		if(!isGoodIndex(position))
+			return;
+		
+		if(favoriteEntries == null)
+			favoriteEntries = new BitSet();
+		int index = order != null ? order.indexAt(position) : position;
+		favoriteEntries.set(index, favorite);
+		if(order instanceof WeightedShuffleOrder)
+			((WeightedShuffleOrder) order).setFavorite(index, favorite);
+	}
+	
+	/**
+	 * @param position Position in the current visiting order
+	 */
+	public boolean isFavorite(int position){
+		if(favoriteEntries == null || !isGoodIndex(position))
+			return false;
+		return favoriteEntries.get(order != null ? order.indexAt(position) : position);
+	}
+	
+	/**
+	 * Moves the given number of valid entries away from a position
+	 * @param from Starting position
+	 * @param steps Valid entries to move past, negative to move backwards
+	 * @param wrap true to wrap around the ends, false to stop at the last valid entry
+	 * @return The position reached
+	 */
+	protected int walk(int from, int steps, boolean wrap){
+		int size = size();
+		int direction = steps < 0 ? -1 : 1;
+		int position = from, reached = from;
+		for(int remaining = Math.abs(steps); remaining > 0; remaining--){
+			int next = reached;
+			for(int tries = 0; tries < size; tries++){
+				position += direction;
+				if(position < 0 || position >= size){
+					if(!wrap)
+						return reached;
+					position = position < 0 ? size - 1 : 0;
+				}
+				if(!isInvalid(position)){
+					next = position;
+					break;
+				}
+			}
+			if(next == reached)
+				return reached; //Nothing valid left in that direction
+			reached = next;
+		}
+		return reached;
+	}
+	
 	public void clear(){
 		super.clear();
+		order = null;
+		isSorted = false;
 		currentIndex = 0;
+		invalidEntries = null;
+		favoriteEntries = null;
+		columns = null;
+		version++;
+		entryVersion++;
+	}
+	
+	/**
+	 * @param position Position in the current visiting order
+	 */
+	public void remove(int position){
+		if(isGoodIndex(position))
+			removeEntry(order != null ? order.indexAt(position) : position);
+	}
+	
+	/**
+	 * Same as remove, for entries that may not be visible in the current order
+	 * @param index Index in the underlying list
+	 */
+	public void removeEntryAt(int index){
+		if(index >= 0 && index < imageFiles.size())
+			removeEntry(index);
+	}
+	
+	/**
+	 * Same as removeEntryAt for many entries at once, in one pass over the playlist
+	 * @param indexes Indexes in the underlying list, in any order, out of range ones are ignored
+	 */
+	public void removeEntriesAt(int[] indexes){
+		int[] sorted = indexes.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for(int index : sorted){
+			if(index >= 0 && index < imageFiles.size() && (count == 0 || sorted[count - 1] != index))
+				sorted[count++] = index;
+		}
+		removeEntries(Arrays.copyOf(sorted, count));
+	}
+	
+	/**
+	 * Brings the playlist in line with changes made to the files behind it.
+	 * One pass over the entries finds the ones affected, and only entries in
+	 * a changed directory have their path built. Removed entries are taken
+	 * out the way remove does, renamed ones keep their place and flags, and
+	 * new ones are appended unless they are in the playlist already.
+	 * @param removed Paths of files deleted
+	 * @param removedFolders Directory prefixes, ending in a slash, of folders deleted with everything below them
+	 * @param renamed New path of each file renamed, by its old path
+	 * @param added Paths of files created
+	 * @return Number of entries removed, renamed or added
+	 */
+	public int applyChanges(Set<String> removed, Collection<String> removedFolders, Map<String, String> renamed,
+							Set<String> added){
+		Set<String> touched = new HashSet<String>();
+		addDirectories(touched, removed);
+		addDirectories(touched, renamed.keySet());
+		addDirectories(touched, renamed.values());
+		addDirectories(touched, added);
+		
+		Set<String> pending = new LinkedHashSet<String>(added);
+		Set<String> present = new HashSet<String>();
+		List<Integer> removals = new ArrayList<Integer>();
+		List<Integer> renames = new ArrayList<Integer>();
+		List<String> newPaths = new ArrayList<String>();
+		
+		String lastDirectory = null;
+		boolean lastRemoved = false;
+		for(int index = 0; index < imageFiles.size(); index++){
+			String directory = directoryOf(index);
+			if(!directory.equals(lastDirectory)){
+				lastDirectory = directory;
+				lastRemoved = false;
+				for(String folder : removedFolders)
+					lastRemoved |= directory.startsWith(folder);
+			}
+			if(lastRemoved){
+				removals.add(index);
+				continue;
+			}
+			if(!touched.contains(directory))
+				continue;
+			
+			String path = imageFiles.get(index);
+			if(removed.contains(path)){
+				removals.add(index);
+			}
+			else if(renamed.containsKey(path)){
+				renames.add(index);
+				newPaths.add(renamed.get(path));
+			}
+			else{
+				pending.remove(path);
+				present.add(path);
+			}
+		}
+		
+		int renamedCount = 0;
+		for(int i = 0; i < renames.size(); i++){
+			String newPath = newPaths.get(i);
+			pending.remove(newPath);
+			if(present.add(newPath)){
+				renameEntry(renames.get(i), newPath);
+				renamedCount++;
+			}
+			else{
+				removals.add(renames.get(i)); //Renamed over an entry already in the playlist
+			}
+		}
+		
+		int[] indexes = new int[removals.size()];
+		for(int i = 0; i < indexes.length; i++)
+			indexes[i] = removals.get(i);
+		Arrays.sort(indexes);
+		removeEntries(indexes);
+		
+		for(String path : pending)
+			appendEntry(path);
+		
+		return removals.size() + renamedCount + pending.size();
+	}
+	
+	private static void addDirectories(Set<String> directories, Collection<String> paths){
+		for(String path : paths)
+			directories.add(path.substring(0, path.lastIndexOf('/') + 1));
+	}
+	
+	/**
+	 * @return The directory prefix of an entry, shared between entries when the list allows it
+	 */
+	private String directoryOf(int index){
+		if(imageFiles instanceof CompactPathList)
+			return ((CompactPathList) imageFiles).getDirectory(index);
+		
+		String path = imageFiles.get(index);
+		return path.substring(0, path.lastIndexOf('/') + 1);
+	}
+	
+	/**
+	 * Points an entry at a new path, keeping its place in every order. What
+	 * was known about the old file no longer holds.
+	 */
+	private void renameEntry(int index, String path){
+		mutableFiles().set(index, path);
+		if(invalidEntries != null)
+			invalidEntries.clear(index);
+		if(columns != null){
+			columns.set(index, null);
+			columns.setNameRanks(null);
+		}
+		version++;
+		entryVersion++;
+	}
+	
+	@Override
+	protected void entryInserted(int index){
+		version++;
+		entryVersion++;
+		shiftBits(invalidEntries, index, 1);
+		shiftBits(favoriteEntries, index, 1);
+		if(columns != null)
+			columns.entryInserted(index);
+		if(order != null){
+			order.entryInserted(index);
+		}
+		else if(index <= currentIndex && size() > 1){
+			//Keep the current entry selected when something is inserted before it
+			currentIndex++;
+		}
 	}
 	
-	public void remove(int index){
-		super.remove(index);
-		if(currentIndex == size())
-			currentIndex--;
-		else if(currentIndex > size())
-			currentIndex -= 2;
+	@Override
+	protected void entryRemoved(int index){
+		//A weighted order may lose several positions before the current one
+		entriesRemoved(new int[]{index});
+	}
+	
+	@Override
+	protected void entriesRemoved(int[] indexes){
+		version++;
+		entryVersion++;
+		removeBits(invalidEntries, indexes);
+		removeBits(favoriteEntries, indexes);
+		if(columns != null)
+			columns.entriesRemoved(indexes);
+		
+		int before;
+		if(order != null){
+			before = order.entriesRemoved(indexes, currentIndex);
+		}
+		else{
+			int found = Arrays.binarySearch(indexes, currentIndex);
+			before = found >= 0 ? found : -found - 1;
+		}
+		currentIndex -= before;
+		
+		if(currentIndex >= size())
+			currentIndex = size() - 1;
+		if(currentIndex < 0)
+			currentIndex = 0;
+	}
+	
+	/**
+	 * Keeps per entry flags on their entries when several entries are removed at once
+	 * @param bits Flags by entry index, may be null
+	 * @param removed Indexes removed, in ascending order
+	 */
+	static void removeBits(BitSet bits, int[] removed){
+		if(bits == null || bits.isEmpty())
+			return;
+		
+		BitSet kept = new BitSet();
+		for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)){
+			int index = PlaylistOrder.renumber(removed, i);
+			if(index >= 0)
+				kept.set(index);
+		}
+		bits.clear();
+		bits.or(kept);
+	}
+	
+	/**
+	 * Keeps per entry flags on their entries when the entries after an index move
+	 * @param bits Flags by entry index, may be null
+	 * @param from First entry index that moved
+	 * @param offset Distance it moved
+	 */
+	static void shiftBits(BitSet bits, int from, int offset){
+		if(bits == null || from >= bits.length())
+			return;
+		
+		BitSet moved = bits.get(from, bits.length());
+		bits.clear(Math.min(from, from + offset), bits.length());
+		for(int i = moved.nextSetBit(0); i >= 0; i = moved.nextSetBit(i + 1))
+			bits.set(from + i + offset);
 	}
 	
 	/**
@@ -97,12 +558,19 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 	 * @return The item located at currentIndex - 1
 	 */
 	public String prev(){
+		int previousIndex = currentIndex;
+		if(hasInvalidEntries()){
+			currentIndex = walk(currentIndex, -1, isCircular);
+			fireNavigation(previousIndex, -1);
+			return get(currentIndex);
+		}
 		if(--currentIndex < 0){
 			if(isCircular)
 				currentIndex = size() - 1;
 			else
 				currentIndex = 0;
 		}
+		fireNavigation(previousIndex, -1);
 		return get(currentIndex);
 	}
 	
@@ -112,12 +580,26 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 	 */
 	public String next(){
 		int size = size();
+		int previousIndex = currentIndex;
+		if(hasInvalidEntries()){
+			currentIndex = walk(currentIndex, 1, isCircular);
+			if(isCircular && currentIndex <= previousIndex && isShuffledByWeight()){
+				//Wrapped past the end, which starts the next cycle of the weighted shuffle
+				startNextCycle();
+				currentIndex = isInvalid(0) ? walk(0, 1, false) : 0;
+			}
+			fireNavigation(previousIndex, 1);
+			return get(currentIndex);
+		}
 		if(++currentIndex >= size){
-			if(isCircular)
+			if(isCircular){
 				currentIndex = 0;
+				startNextCycle();
+			}
 			else
 				currentIndex = size - 1;
 		}
+		fireNavigation(previousIndex, 1);
 		return get(currentIndex);
 	}
 	
@@ -126,6 +608,7 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 	 * @return
 	 */
 	public String back(int n){
+		int previousIndex = currentIndex;
 		if(currentIndex >= n){
 			currentIndex -= n;
 		}
@@ -133,6 +616,9 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 			currentIndex -= n;
 			currentIndex += size();
 		}
+		if(isInvalid(currentIndex))
+			currentIndex = walk(currentIndex, -1, true);
+		fireNavigation(previousIndex, -n);
 		return get();
 	}
 	
@@ -142,6 +628,7 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 	 */
 	public String forward(int n){
 		int size = size();
+		int previousIndex = currentIndex;
 		if((currentIndex + n) < size){
 			currentIndex += n;
 		}
@@ -149,11 +636,34 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 			currentIndex += n;
 			currentIndex -= size;
 		}
+		if(isInvalid(currentIndex))
+			currentIndex = walk(currentIndex, 1, true);
+		fireNavigation(previousIndex, n);
 		return get();
 	}
 	
+	/**
+	 * Jumps straight to the given position
+	 * @param position Position in the current visiting order
+	 * @return The entry at the new position, or null if the position is out of range
+	 */
+	public String moveTo(int position){
+		if(!isGoodIndex(position))
+			return null;
+		
+		int previousIndex = currentIndex;
+		currentIndex = position;
+		fireNavigation(previousIndex, position - previousIndex);
+		return get();
+	}
+	
+	/**
+	 * Moves to the first position. A weighted shuffle draws a new cycle of
+	 * entries instead of replaying the one just visited.
+	 */
 	public String first(){
 		currentIndex = 0;
+		startNextCycle();
 		return get();
 	}
 	
@@ -162,20 +672,238 @@ public class IndexedImagePlaylist extends ImagePlaylist{
 		return get();
 	}
 	
+	/**
+	 * Reorders the underlying list in place with a linear time Fisher-Yates shuffle.
+	 * Flags and metadata kept by entry index move with their entries.
+	 * @param rng
+	 */
 	public void shuffle(Random rng){
 		if(rng == null)
 			rng = new Random();
-		ArrayList<String> list = new ArrayList<String>(size());
-		int index;
-		String str;
-		while(!isEmpty()){
-			index = rng.nextInt(size());
-			str = this.imageFiles.get(index);
-			
-			this.imageFiles.remove(index);
-			list.add(str);
+		List<String> files = mutableFiles();
+		PlaylistColumns columns = this.columns != null && this.columns.size() == files.size() ? this.columns : null;
+		if(hasInvalidEntries() || (favoriteEntries != null && !favoriteEntries.isEmpty()) || columns != null){
+			//The same swaps the lists make, repeated on the flags and the metadata
+			for(int i = files.size() - 1; i > 0; i--){
+				int j = rng.nextInt(i + 1);
+				if(files instanceof CompactPathList)
+					((CompactPathList) files).swap(i, j);
+				else
+					Collections.swap(files, i, j);
+				swapBits(invalidEntries, i, j);
+				swapBits(favoriteEntries, i, j);
+				if(columns != null)
+					columns.swap(i, j);
+			}
+		}
+		else if(files instanceof CompactPathList){
+			((CompactPathList) files).shuffle(rng);
+		}
+		else{
+			Collections.shuffle(files, rng);
+		}
+		this.columns = columns;
+		version++;
+		entryVersion++;
+	}
+	
+	private static void swapBits(BitSet bits, int i, int j){
+		if(bits == null)
+			return;
+		boolean bit = bits.get(i);
+		bits.set(i, bits.get(j));
+		bits.set(j, bit);
+	}
+	
+	/**
+	 * Shuffles the visiting order without touching the underlying list, so 
+	 * unshuffle can restore the original order in constant time.
+	 * The current entry keeps its position.
+	 * @param rng
+	 */
+	public void shuffleIndices(Random rng){
+		if(rng == null)
+			rng = new Random();
+		
+		int count = imageFiles.size();
+		int current = currentEntryIndex();
+		PermutationOrder shuffled = PermutationOrder.shuffled(count, rng);
+		if(current > -1){
+			shuffled.swap(shuffled.positionOf(current), currentIndex);
+		}
+		order = shuffled;
+		isSorted = false;
+		version++;
+	}
+	
+	/**
+	 * Same as shuffleIndices, but the order is generated on demand as the
+	 * playlist is navigated, so shuffling takes constant time and memory
+	 * regardless of the playlist size
+	 * @param rng
+	 */
+	public void shuffleLazily(Random rng){
+		if(rng == null)
+			rng = new Random();
+		
+		int current = currentEntryIndex();
+		LazyPermutationOrder shuffled = new LazyPermutationOrder(imageFiles.size(), rng.nextLong());
+		if(current > -1){
+			shuffled.swap(shuffled.positionOf(current), currentIndex);
+		}
+		order = shuffled;
+		isSorted = false;
+		version++;
+	}
+	
+	/**
+	 * Shuffles the visiting order by drawing entries one at a time by weight,
+	 * favorites more often than the rest and never one of the last few again.
+	 * Positions are drawn as the playlist is navigated. The current entry is
+	 * moved to the first position.
+	 * @param rng
+	 * @param noRepeatWindow Number of entries shown before one can come up again
+	 */
+	public void shuffleWeighted(Random rng, int noRepeatWindow){
+		if(rng == null)
+			rng = new Random();
+		
+		int current = currentEntryIndex();
+		WeightedShuffleOrder shuffled = new WeightedShuffleOrder(imageFiles.size(), rng.nextLong(), 
+				WeightedShuffleOrder.DEFAULT_FAVORITE_WEIGHT, noRepeatWindow);
+		if(favoriteEntries != null){
+			for(int i = favoriteEntries.nextSetBit(0); i >= 0; i = favoriteEntries.nextSetBit(i + 1))
+				shuffled.setFavorite(i, true);
+		}
+		if(hasInvalidEntries()){
+			for(int i = invalidEntries.nextSetBit(0); i >= 0; i = invalidEntries.nextSetBit(i + 1))
+				shuffled.setExcluded(i, true);
+		}
+		if(current > -1)
+			shuffled.startWith(current);
+		
+		order = shuffled;
+		isSorted = false;
+		currentIndex = 0;
+		version++;
+	}
+	
+	/**
+	 * @return The metadata columns, created empty the first time
+	 */
+	public PlaylistColumns getColumns(){
+		if(columns == null || columns.size() != imageFiles.size())
+			columns = new PlaylistColumns(imageFiles.size());
+		return columns;
+	}
+	
+	/**
+	 * Records what is known about an entry for sorting and filtering
+	 * @param position Position in the current visiting order
+	 */
+	public void setMetadata(int position, ImageMetadata metadata){
+		if(isGoodIndex(position))
+			setEntryMetadata(order != null ? order.indexAt(position) : position, metadata);
+	}
+	
+	/**
+	 * @param index Index in the underlying list
+	 */
+	public void setEntryMetadata(int index, ImageMetadata metadata){
+		getColumns().set(index, metadata);
+	}
+	
+	/**
+	 * Fills in the metadata of every entry not known yet from what the index
+	 * has cached, without touching the files
+	 * @param metadataIndex
+	 * @return Number of entries whose metadata is still unknown
+	 */
+	public int fillMetadata(MetadataIndex metadataIndex){
+		PlaylistColumns columns = getColumns();
+		int missing = 0;
+		for(int index = 0; index < imageFiles.size(); index++){
+			if(columns.isKnown(index))
+				continue;
+			ImageMetadata metadata = metadataIndex.get(imageFiles.get(index));
+			if(metadata != null)
+				columns.set(index, metadata);
+			else
+				missing++;
 		}
+		return missing;
+	}
+	
+	/**
+	 * Orders the playlist by a metadata column, optionally showing only the
+	 * entries a filter accepts. The underlying list is untouched, so unshuffle
+	 * returns to list order. Entries added later are appended to the end of the
+	 * view until the next sort. The current entry keeps its place in the view
+	 * if it passes the filter, otherwise the view starts from the top.
+	 * @param key
+	 * @param descending
+	 * @param filter Entries to show, or null for all of them
+	 * @return Number of entries in the view
+	 */
+	public int sortBy(PlaylistSort.Key key, boolean descending, PlaylistFilter filter){
+		int current = currentEntryIndex();
+		int[] sorted = PlaylistSort.sort(imageFiles, getColumns(), key, descending, filter);
 		
-		this.imageFiles = list;
+		order = new PermutationOrder(sorted);
+		isSorted = true;
+		currentIndex = 0;
+		if(current > -1){
+			int position = order.positionOf(current);
+			if(position > -1)
+				currentIndex = position;
+		}
+		version++;
+		return sorted.length;
+	}
+	
+	public boolean isShuffledByWeight(){
+		return order instanceof WeightedShuffleOrder;
+	}
+	
+	private void startNextCycle(){
+		if(order instanceof WeightedShuffleOrder){
+			((WeightedShuffleOrder) order).nextCycle();
+			version++;
+		}
+	}
+	
+	/**
+	 * Returns to list order, staying on the current entry
+	 */
+	public void unshuffle(){
+		if(order == null)
+			return;
+		
+		int current = currentEntryIndex();
+		order = null;
+		isSorted = false;
+		currentIndex = current > -1 ? current : 0;
+		version++;
+	}
+	
+	public boolean isShuffled(){
+		return order != null;
+	}
+	
+	/**
+	 * @return true if the order is a plain random permutation, false in list
+	 * order and for sorted and weighted orders
+	 */
+	public boolean isShuffledRandomly(){
+		return order != null && !isSorted && !isShuffledByWeight();
+	}
+	
+	/**
+	 * @return Index in the underlying list of the current entry, or -1 if the playlist is empty
+	 */
+	protected int currentEntryIndex(){
+		if(isEmpty() || !isGoodIndex(currentIndex))
+			return -1;
+		return order != null ? order.indexAt(currentIndex) : currentIndex;
 	}
 }
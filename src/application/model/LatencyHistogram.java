@@ -0,0 +1,119 @@
+package application.model;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * @author John Riley
+ * Lock free histogram of latencies in nanoseconds. Buckets are log-linear
+ * in the style of HdrHistogram: values below 64 get a bucket each, and every
+ * power of two above that is split into 32 equal buckets, so any recorded
+ * value is reported within about 3% of its real value while the whole
+ * range of a long fits in under two thousand counters.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int LINEAR_LIMIT = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_LIMIT = LINEAR_LIMIT >> 1;
+	private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS) * HALF_LIMIT;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong totalCount, totalValue, maxValue;
+
+	public LatencyHistogram(){
+		counts = new AtomicLongArray(BUCKET_COUNT);
+		totalCount = new AtomicLong();
+		totalValue = new AtomicLong();
+		maxValue = new AtomicLong();
+	}
+
+	public void record(long nanos){
+		if(nanos < 0)
+			nanos = 0;
+
+		counts.incrementAndGet(indexOf(nanos));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(nanos);
+
+		long max;
+		while(nanos > (max = maxValue.get()) && !maxValue.compareAndSet(max, nanos));
+	}
+
+	public long getCount(){
+		return totalCount.get();
+	}
+
+	public long getMax(){
+		return maxValue.get();
+	}
+
+	public double getMean(){
+		long count = totalCount.get();
+		return count > 0 ? (double) totalValue.get() / count : 0;
+	}
+
+	/**
+	 * @param percentile Between 0 and 100
+	 * @return Upper bound of the bucket holding the percentile, in nanoseconds
+	 */
+	public long getValueAtPercentile(double percentile){
+		long count = totalCount.get();
+		if(count == 0)
+			return 0;
+
+		long target = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+		target = Math.max(1, target);
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++){
+			seen += counts.get(i);
+			if(seen >= target)
+				return Math.min(upperBoundOf(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Same as getValueAtPercentile, converted to milliseconds
+	 */
+	public double getMillisAtPercentile(double percentile){
+		return getValueAtPercentile(percentile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	public void reset(){
+		for(int i = 0; i < BUCKET_COUNT; i++)
+			counts.set(i, 0);
+		totalCount.set(0);
+		totalValue.set(0);
+		maxValue.set(0);
+	}
+
+	@Override
+	public String toString(){
+		return String.format("n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+							getCount(), getMean() / 1e6, getMillisAtPercentile(50),
+							getMillisAtPercentile(90), getMillisAtPercentile(99), getMax() / 1e6);
+	}
+
+	static int indexOf(long value){
+		if(value < LINEAR_LIMIT)
+			return (int) value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS + 1));
+		return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS) * HALF_LIMIT + (mantissa - HALF_LIMIT);
+	}
+
+	static long upperBoundOf(int index){
+		if(index < LINEAR_LIMIT)
+			return index;
+
+		int offset = index - LINEAR_LIMIT;
+		int exponent = offset / HALF_LIMIT + SUB_BUCKET_BITS;
+		long mantissa = (offset % HALF_LIMIT) + HALF_LIMIT;
+		int shift = exponent - SUB_BUCKET_BITS + 1;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,195 @@
+package application.model;
+
+/**
+ *
+ * @author John Riley
+ * Random playlist order that is computed on demand instead of stored.
+ * Positions are mapped to indexes by a seeded Feistel network, a bijection
+ * over the next power of four above the playlist size, and values outside
+ * the playlist are skipped by walking the cycle until one lands inside it.
+ * Creating the order is constant time and it takes constant memory no
+ * matter how large the playlist is, while every position still maps to
+ * the same entry each time it is asked for.
+ *
+ * Entries appended after shuffling are visited after the shuffled ones.
+ * Any other change to the underlying list turns the order into an explicit
+ * PermutationOrder, which costs time and memory linear in the playlist size.
+ */
+public class LazyPermutationOrder extends PlaylistOrder {
+
+	private static final long serialVersionUID = 1;
+
+	private static final int ROUNDS = 4;
+
+	/* Number of entries covered by the permutation */
+	private final int domain;
+	private final int halfBits;
+	private final long halfMask;
+	private final long[] keys;
+
+	/* Entries appended after the order was created */
+	private int appended;
+
+	/* Two positions whose entries are exchanged, -1 if none */
+	private int swapA, swapB;
+
+	/* Explicit copy of the order, created once the list is edited in the middle */
+	private PermutationOrder materialized;
+
+	public LazyPermutationOrder(int size, long seed){
+		this.domain = size;
+
+		int bits = 2;
+		while(bits < 32 && (1L << bits) < size)
+			bits += 2;
+		this.halfBits = bits / 2;
+		this.halfMask = (1L << halfBits) - 1;
+
+		this.keys = new long[ROUNDS];
+		long state = seed;
+		for(int i = 0; i < ROUNDS; i++){
+			state += 0x9E3779B97F4A7C15L;
+			keys[i] = mix(state);
+		}
+
+		this.appended = 0;
+		this.swapA = this.swapB = -1;
+	}
+
+	/**
+	 * Exchanges the entries at the two positions
+	 */
+	public void swap(int i, int j){
+		if(materialized != null){
+			materialized.swap(i, j);
+			return;
+		}
+
+		if(swapA != -1)
+			materialize().swap(i, j);
+		else if(i != j){
+			swapA = i;
+			swapB = j;
+		}
+	}
+
+	@Override
+	public int size() {
+		if(materialized != null)
+			return materialized.size();
+		return domain + appended;
+	}
+
+	@Override
+	public int indexAt(int position) {
+		if(materialized != null)
+			return materialized.indexAt(position);
+
+		if(position == swapA)
+			position = swapB;
+		else if(position == swapB)
+			position = swapA;
+
+		if(position >= domain)
+			return position;
+
+		long x = position;
+		do{
+			x = encrypt(x);
+		}
+		while(x >= domain);
+		return (int) x;
+	}
+
+	@Override
+	public int positionOf(int index) {
+		if(materialized != null)
+			return materialized.positionOf(index);
+
+		int position;
+		if(index < 0 || index >= size()){
+			return -1;
+		}
+		else if(index >= domain){
+			position = index;
+		}
+		else{
+			long x = index;
+			do{
+				x = decrypt(x);
+			}
+			while(x >= domain);
+			position = (int) x;
+		}
+
+		if(position == swapA)
+			return swapB;
+		else if(position == swapB)
+			return swapA;
+		return position;
+	}
+
+	@Override
+	public void entryInserted(int index) {
+		if(materialized == null && index == size())
+			appended++;
+		else
+			materialize().entryInserted(index);
+	}
+
+	@Override
+	public int entryRemoved(int index) {
+		return materialize().entryRemoved(index);
+	}
+
+	@Override
+	public int entriesRemoved(int[] removed, int position) {
+		return materialize().entriesRemoved(removed, position);
+	}
+
+	public boolean isMaterialized(){
+		return materialized != null;
+	}
+
+	protected PermutationOrder materialize(){
+		if(materialized == null){
+			int size = size();
+			int[] indexes = new int[size];
+			for(int i = 0; i < size; i++)
+				indexes[i] = indexAt(i);
+			materialized = new PermutationOrder(indexes, size);
+		}
+		return materialized;
+	}
+
+	private long encrypt(long x){
+		long left = x >>> halfBits;
+		long right = x & halfMask;
+		for(int i = 0; i < ROUNDS; i++){
+			long next = left ^ (mix(right ^ keys[i]) & halfMask);
+			left = right;
+			right = next;
+		}
+		return (left << halfBits) | right;
+	}
+
+	private long decrypt(long x){
+		long left = x >>> halfBits;
+		long right = x & halfMask;
+		for(int i = ROUNDS - 1; i >= 0; i--){
+			long previous = right ^ (mix(left ^ keys[i]) & halfMask);
+			right = left;
+			left = previous;
+		}
+		return (left << halfBits) | right;
+	}
+
+	/**
+	 * 64 bit finalizer from SplitMix64
+	 */
+	private static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,109 @@
+package application.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * 
+ * @author John Riley
+ * Read only list of playlist entries backed by a memory mapped playlist file.
+ * Entries are looked up through the offset table of the file and decoded
+ * only when they are requested, so opening a playlist takes constant time
+ * and the heap holds nothing but the directory names that have been used.
+ * Java offers no way to unmap a file, the mapping lives until the list is
+ * garbage collected. Windows refuses to replace a file while it is mapped,
+ * so saving over the file of an open playlist can fail there.
+ * @see PlaylistFile
+ */
+public class MappedPathList extends AbstractList<String> implements RandomAccess {
+	
+	private final Path file;
+	private final MappedByteBuffer map;
+	private final int size;
+	private final int directoryCount;
+	private final int directoryTable, entryTable;
+	private final String[] directories;
+	
+	/**
+	 * @param file The playlist file
+	 * @param channel Channel of a playlist file of version 2 or later.
+	 * The mapping stays valid after the channel is closed.
+	 */
+	public MappedPathList(Path file, FileChannel channel) throws IOException {
+		this.file = file;
+		long length = channel.size();
+		if(length > Integer.MAX_VALUE)
+			throw new IOException("Playlist is too large to be mapped");
+		
+		map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		if(length < PlaylistFile.HEADER_SIZE || map.getInt(0) != PlaylistFile.MAGIC)
+			throw new IOException("The file is not an image playlist");
+		
+		size = map.getInt(8);
+		directoryCount = map.getInt(12);
+		directoryTable = PlaylistFile.HEADER_SIZE;
+		entryTable = directoryTable + 4 * directoryCount;
+		if(size < 0 || directoryCount < 0 || entryTable + 4L * size > length)
+			throw new IOException("Corrupt playlist header");
+		
+		directories = new String[directoryCount];
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public String get(int index) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		
+		int offset = map.getInt(entryTable + 4 * index);
+		int directory = map.getInt(offset);
+		int length = map.getShort(offset + 4) & 0xFFFF;
+		return getDirectory(directory) + readString(offset + 6, length);
+	}
+	
+	private String getDirectory(int index){
+		if(index < 0 || index >= directoryCount)
+			throw new IllegalStateException("Corrupt playlist entry directory: " + index);
+		
+		String directory = directories[index];
+		if(directory == null){
+			int offset = map.getInt(directoryTable + 4 * index);
+			directory = readString(offset + 4, map.getInt(offset));
+			directories[index] = directory;
+		}
+		return directory;
+	}
+	
+	private String readString(int offset, int length){
+		//Duplicates keep concurrent readers from sharing a buffer position
+		ByteBuffer view = map.duplicate();
+		view.position(offset);
+		byte[] bytes = new byte[length];
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @param other
+	 * @return true if this list maps the given file
+	 */
+	public boolean maps(Path other){
+		try{
+			return Files.isSameFile(file, other);
+		}
+		catch(IOException e){
+			return false;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+package application.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ * @author John Riley
+ * Cache of ImageMetadata for every image seen, kept on disk between runs.
+ * Entries are keyed by a 64 bit hash of the image path and stored column
+ * by column in primitive arrays under open addressing, so a million images
+ * take a few dozen megabytes and no per entry objects. A cached entry is
+ * only trusted while the file keeps the size and modification time it was
+ * read at, which takes a stat rather than opening the file.
+ */
+public class MetadataIndex {
+
+	/* "SIPM" */
+	private static final int MAGIC = 0x5349504D;
+	private static final int VERSION = 1;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/* Marks an empty slot, paths hashing to it are stored under EMPTY_REPLACEMENT */
+	private static final long EMPTY = 0, EMPTY_REPLACEMENT = 1;
+
+	private static final ImageFormat[] FORMATS = ImageFormat.values();
+
+	private final File file;
+
+	private long[] keys;
+	private byte[] formats;
+	private int[] widths, heights;
+	private long[] sizes, modified, captured;
+	private int count;
+
+	private boolean loaded, dirty;
+
+	/**
+	 * @param file Where the index is kept, read the first time it is used
+	 */
+	public MetadataIndex(File file){
+		this.file = file;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @return ~/.picshuffle/metadata.idx
+	 */
+	public static File getDefaultFile(){
+		return new File(new File(System.getProperty("user.home"), ".picshuffle"), "metadata.idx");
+	}
+
+	public File getFile(){
+		return file;
+	}
+
+	/**
+	 * @return The cached metadata, without touching the file, or null if the image has not been read
+	 */
+	public synchronized ImageMetadata get(String imagePath){
+		ensureLoaded();
+		int slot = find(key(imagePath));
+		return slot >= 0 ? toMetadata(slot) : null;
+	}
+
+	/**
+	 * Returns the metadata of an image, reading its header only if it is not
+	 * cached or the file has changed since
+	 * @param imagePath URL or path of a local image
+	 * @return The metadata, or null if the file does not exist or cannot be read
+	 */
+	public ImageMetadata lookup(String imagePath){
+		File imageFile = AppUtils.toFile(imagePath);
+		if(imageFile == null)
+			return null;
+
+		BasicFileAttributes attributes;
+		try{
+			attributes = Files.readAttributes(imageFile.toPath(), BasicFileAttributes.class);
+		}
+		catch(IOException | RuntimeException e){
+			remove(imagePath);
+			return null;
+		}
+
+		ImageMetadata cached = get(imagePath);
+		if(cached != null && cached.matches(attributes.size(), attributes.lastModifiedTime().toMillis()))
+			return cached;
+
+		try{
+			ImageMetadata metadata = ImageMetadata.read(imageFile);
+			put(imagePath, metadata);
+			return metadata;
+		}
+		catch(IOException | RuntimeException e){
+			remove(imagePath);
+			return null;
+		}
+	}
+
+	public synchronized void put(String imagePath, ImageMetadata metadata){
+		ensureLoaded();
+		long key = key(imagePath);
+		int slot = find(key);
+		if(slot < 0){
+			if((count + 1) * 2 > keys.length)
+				grow();
+			slot = insertionSlot(key);
+			keys[slot] = key;
+			count++;
+		}
+		store(slot, metadata);
+		dirty = true;
+	}
+
+	public synchronized void remove(String imagePath){
+		ensureLoaded();
+		int slot = find(key(imagePath));
+		if(slot < 0)
+			return;
+
+		//Backward shift deletion keeps every probe chain unbroken without tombstones
+		int mask = keys.length - 1;
+		int hole = slot;
+		for(int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask){
+			int home = home(keys[next]);
+			if(((next - home) & mask) >= ((next - hole) & mask)){
+				move(next, hole);
+				hole = next;
+			}
+		}
+		keys[hole] = EMPTY;
+		count--;
+		dirty = true;
+	}
+
+	public synchronized int size(){
+		ensureLoaded();
+		return count;
+	}
+
+	public synchronized void clear(){
+		allocate(INITIAL_CAPACITY);
+		count = 0;
+		loaded = true;
+		dirty = true;
+	}
+
+	/**
+	 * Writes the index to its file if anything changed since it was read
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if(!dirty)
+			return;
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if(!parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Cannot create " + parent);
+
+		Path temp = Files.createTempFile(parent.toPath(), ".metadata", ".tmp");
+		try{
+			try(OutputStream stream = Files.newOutputStream(temp);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(stream)))){
+				out.writeInt(MAGIC);
+				out.writeShort(VERSION);
+				out.writeInt(count);
+				for(int slot = 0; slot < keys.length; slot++){
+					if(keys[slot] == EMPTY)
+						continue;
+					out.writeLong(keys[slot]);
+					out.writeByte(formats[slot]);
+					out.writeInt(widths[slot]);
+					out.writeInt(heights[slot]);
+					out.writeLong(sizes[slot]);
+					out.writeLong(modified[slot]);
+					out.writeLong(captured[slot]);
+				}
+			}
+			Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			dirty = false;
+		}
+		finally{
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Reads the file the first time the index is used. A missing, damaged
+	 * or outdated file just leaves the index empty.
+	 */
+	private void ensureLoaded(){
+		if(loaded)
+			return;
+		loaded = true;
+
+		try(InputStream stream = Files.newInputStream(file.toPath());
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream)))){
+			if(in.readInt() != MAGIC || in.readShort() != VERSION)
+				return;
+
+			int stored = in.readInt();
+			int capacity = INITIAL_CAPACITY;
+			while(capacity < stored * 2L)
+				capacity <<= 1;
+			allocate(capacity);
+
+			for(int i = 0; i < stored; i++){
+				long key = in.readLong();
+				int slot = insertionSlot(key);
+				keys[slot] = key;
+				formats[slot] = in.readByte();
+				widths[slot] = in.readInt();
+				heights[slot] = in.readInt();
+				sizes[slot] = in.readLong();
+				modified[slot] = in.readLong();
+				captured[slot] = in.readLong();
+				count++;
+			}
+		}
+		catch(NoSuchFileException e){
+			//First run
+		}
+		catch(IOException | RuntimeException e){
+			allocate(INITIAL_CAPACITY);
+			count = 0;
+		}
+	}
+
+	private static long key(String imagePath){
+		long key = ThumbnailStore.hash(imagePath);
+		return key == EMPTY ? EMPTY_REPLACEMENT : key;
+	}
+
+	private int home(long key){
+		//Spread the high bits too, FNV-1a varies little in the low bits of similar paths
+		long mixed = key ^ (key >>> 32);
+		return (int) (mixed ^ (mixed >>> 16)) & (keys.length - 1);
+	}
+
+	/**
+	 * @return The slot holding the key, or -1 if it is not in the index
+	 */
+	private int find(long key){
+		int mask = keys.length - 1;
+		for(int slot = home(key); keys[slot] != EMPTY; slot = (slot + 1) & mask){
+			if(keys[slot] == key)
+				return slot;
+		}
+		return -1;
+	}
+
+	private int insertionSlot(long key){
+		int mask = keys.length - 1;
+		int slot = home(key);
+		while(keys[slot] != EMPTY)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void store(int slot, ImageMetadata metadata){
+		formats[slot] = (byte) metadata.getFormat().ordinal();
+		widths[slot] = metadata.getWidth();
+		heights[slot] = metadata.getHeight();
+		sizes[slot] = metadata.getSize();
+		modified[slot] = metadata.getLastModified();
+		captured[slot] = metadata.getCaptureTime();
+	}
+
+	private ImageMetadata toMetadata(int slot){
+		int format = formats[slot];
+		return new ImageMetadata(format >= 0 && format < FORMATS.length ? FORMATS[format] : ImageFormat.UNKNOWN,
+								widths[slot], heights[slot], sizes[slot], modified[slot], captured[slot]);
+	}
+
+	private void move(int from, int to){
+		keys[to] = keys[from];
+		formats[to] = formats[from];
+		widths[to] = widths[from];
+		heights[to] = heights[from];
+		sizes[to] = sizes[from];
+		modified[to] = modified[from];
+		captured[to] = captured[from];
+	}
+
+	private void grow(){
+		long[] oldKeys = keys;
+		byte[] oldFormats = formats;
+		int[] oldWidths = widths, oldHeights = heights;
+		long[] oldSizes = sizes, oldModified = modified, oldCaptured = captured;
+
+		allocate(oldKeys.length * 2);
+		for(int i = 0; i < oldKeys.length; i++){
+			if(oldKeys[i] == EMPTY)
+				continue;
+			int slot = insertionSlot(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			formats[slot] = oldFormats[i];
+			widths[slot] = oldWidths[i];
+			heights[slot] = oldHeights[i];
+			sizes[slot] = oldSizes[i];
+			modified[slot] = oldModified[i];
+			captured[slot] = oldCaptured[i];
+		}
+	}
+
+	private void allocate(int capacity){
+		keys = new long[capacity];
+		formats = new byte[capacity];
+		widths = new int[capacity];
+		heights = new int[capacity];
+		sizes = new long[capacity];
+		modified = new long[capacity];
+		captured = new long[capacity];
+	}
+}
@@ -0,0 +1,91 @@
+package application.model;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ *
+ * @author John Riley
+ * 64 bit difference hash (dHash) of an image. The image is shrunk to a 9x8
+ * grid of grey levels and every bit records whether a cell is brighter than
+ * its right neighbour, so resized, recompressed or slightly retouched copies
+ * of a photo end up only a few bits apart. The hash only needs a tiny image,
+ * so the image is decoded with heavy subsampling. EXIF previews are not used,
+ * they may be cropped, padded or left over from before the photo was edited.
+ */
+public class PerceptualHash {
+
+	private static final int GRID_WIDTH = 9, GRID_HEIGHT = 8;
+
+	/* Longest edge to decode at, plenty for a 9x8 grid */
+	private static final int DECODE_SIZE = 64;
+
+	private PerceptualHash(){
+	}
+
+	/**
+	 * @param imagePath URL or path of a local image
+	 * @return The hash of the image
+	 * @throws IOException If the image cannot be decoded
+	 */
+	public static long hash(String imagePath) throws IOException {
+		File file = AppUtils.toFile(imagePath);
+		if(file == null)
+			throw new IOException("Not a local file: " + imagePath);
+
+		BufferedImage image = BufferedImageDecoder.read(file, DECODE_SIZE);
+		if(image == null)
+			throw new IOException("Cannot decode " + imagePath);
+
+		return hash(image);
+	}
+
+	public static long hash(BufferedImage image){
+		double[] grid = shrink(image);
+		long hash = 0;
+		for(int y = 0; y < GRID_HEIGHT; y++){
+			for(int x = 0; x < GRID_WIDTH - 1; x++){
+				hash <<= 1;
+				if(grid[y * GRID_WIDTH + x] > grid[y * GRID_WIDTH + x + 1])
+					hash |= 1;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * @return Number of bits that differ between two hashes
+	 */
+	public static int distance(long a, long b){
+		return Long.bitCount(a ^ b);
+	}
+
+	/**
+	 * Averages the luminance of the image over each cell of the grid
+	 */
+	private static double[] shrink(BufferedImage image){
+		int width = image.getWidth(), height = image.getHeight();
+		double[] sums = new double[GRID_WIDTH * GRID_HEIGHT];
+		int[] counts = new int[GRID_WIDTH * GRID_HEIGHT];
+		int[] row = new int[width];
+
+		for(int y = 0; y < height; y++){
+			image.getRGB(0, y, width, 1, row, 0, width);
+			int cellRow = y * GRID_HEIGHT / height * GRID_WIDTH;
+			for(int x = 0; x < width; x++){
+				int rgb = row[x];
+				int r = (rgb >> 16) & 0xFF, g = (rgb >> 8) & 0xFF, b = rgb & 0xFF;
+				int cell = cellRow + x * GRID_WIDTH / width;
+				sums[cell] += 0.299 * r + 0.587 * g + 0.114 * b;
+				counts[cell]++;
+			}
+		}
+
+		for(int i = 0; i < sums.length; i++){
+			if(counts[i] > 0)
+				sums[i] /= counts[i];
+		}
+		return sums;
+	}
+}
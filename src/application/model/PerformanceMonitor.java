@@ -0,0 +1,287 @@
+package application.model;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 
+ * @author John Riley
+ * Collects latency histograms for every stage between a navigation event
+ * and the pulse that puts the new image on screen, along with decode volume
+ * and cache hit rates. The numbers are published as a JMX MBean and can be
+ * written to the log periodically.
+ */
+public class PerformanceMonitor implements PerformanceMonitorMBean {
+	
+	public static final String OBJECT_NAME = "application:type=PerformanceMonitor";
+	
+	/* Seconds between log dumps, 0 disables them */
+	public static final String LOG_INTERVAL_PROPERTY = "picshuffle.metrics.interval";
+	
+	private static final Logger LOGGER = Logger.getLogger(PerformanceMonitor.class.getName());
+	
+	public enum Stage {
+		/* Synchronous work done by a navigation handler on the application thread */
+		HANDLER,
+		/* Decoding a single image, full size or thumbnail */
+		DECODE,
+		/* Navigation until the main image is handed to its ImageView */
+		IMAGE_READY,
+		/* Image handed to its ImageView until the next pulse renders it */
+		PULSE,
+		/* Navigation until the pulse that renders the new image */
+		NAVIGATION_TO_DISPLAY
+	}
+	
+	private final Map<Stage, LatencyHistogram> histograms;
+	private final AtomicLong navigationCount, decodedBytes;
+	private ImageLoader imageLoader;
+	private volatile SlideshowEngine<?> slideshow;
+	private ScheduledExecutorService logExecutor;
+	private ObjectName registeredName;
+	
+	public PerformanceMonitor(){
+		histograms = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+		for(Stage stage : Stage.values())
+			histograms.put(stage, new LatencyHistogram());
+		navigationCount = new AtomicLong();
+		decodedBytes = new AtomicLong();
+	}
+	
+	/**
+	 * Cache hit rates are read from the caches of this loader
+	 * @param imageLoader
+	 */
+	public void setImageLoader(ImageLoader imageLoader){
+		this.imageLoader = imageLoader;
+	}
+	
+	/**
+	 * Deadline statistics of the slideshow are reported along with the rest
+	 * @param slideshow The running slideshow, or null once it has stopped
+	 */
+	public void setSlideshowEngine(SlideshowEngine<?> slideshow){
+		this.slideshow = slideshow;
+	}
+	
+	public LatencyHistogram getHistogram(Stage stage){
+		return histograms.get(stage);
+	}
+	
+	public void record(Stage stage, long nanos){
+		histograms.get(stage).record(nanos);
+		if(stage == Stage.HANDLER)
+			navigationCount.incrementAndGet();
+	}
+	
+	public void recordDecode(long nanos, long bytes){
+		histograms.get(Stage.DECODE).record(nanos);
+		decodedBytes.addAndGet(bytes);
+	}
+	
+	/*-------------------------Publishing-------------------------------*/
+	
+	/**
+	 * Registers the monitor with the platform MBean server and starts the
+	 * periodic log dump if LOG_INTERVAL_PROPERTY is set
+	 */
+	public void start(){
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(!server.isRegistered(name)){
+				server.registerMBean(this, name);
+				registeredName = name;
+			}
+		}
+		catch(Exception e){
+			LOGGER.log(Level.WARNING, "Could not register the performance monitor", e);
+		}
+		
+		long interval = Long.getLong(LOG_INTERVAL_PROPERTY, 0);
+		if(interval > 0)
+			startLogging(interval);
+	}
+	
+	public void startLogging(long intervalSeconds){
+		if(logExecutor != null)
+			return;
+		
+		logExecutor = Executors.newSingleThreadScheduledExecutor(
+				new ImageLoader.DaemonThreadFactory("metrics-log"));
+		logExecutor.scheduleAtFixedRate(new Runnable(){
+			@Override
+			public void run() {
+				LOGGER.info(getSummary());
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+	
+	public void stop(){
+		if(logExecutor != null){
+			logExecutor.shutdownNow();
+			logExecutor = null;
+		}
+		
+		if(registeredName != null){
+			try{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+			}
+			catch(Exception e){
+				//Already gone
+			}
+			registeredName = null;
+		}
+	}
+	
+	/*-------------------------MBean Attributes-------------------------------*/
+	
+	@Override
+	public long getNavigationCount() {
+		return navigationCount.get();
+	}
+	
+	@Override
+	public double getHandlerLatencyP50() {
+		return millis(Stage.HANDLER, 50);
+	}
+	
+	@Override
+	public double getHandlerLatencyP99() {
+		return millis(Stage.HANDLER, 99);
+	}
+	
+	@Override
+	public double getDecodeLatencyP50() {
+		return millis(Stage.DECODE, 50);
+	}
+	
+	@Override
+	public double getDecodeLatencyP99() {
+		return millis(Stage.DECODE, 99);
+	}
+	
+	@Override
+	public double getDecodeLatencyMax() {
+		return histograms.get(Stage.DECODE).getMax() / 1e6;
+	}
+	
+	@Override
+	public long getDecodeCount() {
+		return histograms.get(Stage.DECODE).getCount();
+	}
+	
+	@Override
+	public long getDecodedBytes() {
+		return decodedBytes.get();
+	}
+	
+	@Override
+	public double getImageReadyLatencyP50() {
+		return millis(Stage.IMAGE_READY, 50);
+	}
+	
+	@Override
+	public double getImageReadyLatencyP99() {
+		return millis(Stage.IMAGE_READY, 99);
+	}
+	
+	@Override
+	public double getPulseLatencyP50() {
+		return millis(Stage.PULSE, 50);
+	}
+	
+	@Override
+	public double getPulseLatencyP99() {
+		return millis(Stage.PULSE, 99);
+	}
+	
+	@Override
+	public double getNavigationToDisplayP50() {
+		return millis(Stage.NAVIGATION_TO_DISPLAY, 50);
+	}
+	
+	@Override
+	public double getNavigationToDisplayP99() {
+		return millis(Stage.NAVIGATION_TO_DISPLAY, 99);
+	}
+	
+	@Override
+	public double getNavigationToDisplayMax() {
+		return histograms.get(Stage.NAVIGATION_TO_DISPLAY).getMax() / 1e6;
+	}
+	
+	@Override
+	public double getImageCacheHitRate() {
+		return imageLoader != null ? imageLoader.getImageCache().getHitRate() : 0;
+	}
+	
+	@Override
+	public double getThumbnailCacheHitRate() {
+		return imageLoader != null ? imageLoader.getThumbnailCache().getHitRate() : 0;
+	}
+	
+	@Override
+	public long getSlideshowDeadlinesMet() {
+		SlideshowEngine<?> s = slideshow;
+		return s != null ? s.getDeadlinesMet() : 0;
+	}
+	
+	@Override
+	public long getSlideshowDeadlinesMissed() {
+		SlideshowEngine<?> s = slideshow;
+		return s != null ? s.getDeadlinesMissed() : 0;
+	}
+	
+	@Override
+	public double getSlideshowLatenessP99() {
+		SlideshowEngine<?> s = slideshow;
+		return s != null ? s.getLatenessHistogram().getMillisAtPercentile(99) : 0;
+	}
+	
+	@Override
+	public String getSummary() {
+		StringBuilder sb = new StringBuilder("PicShuffle performance");
+		for(Stage stage : Stage.values())
+			sb.append("\n  ").append(stage).append(": ").append(histograms.get(stage));
+		sb.append(String.format("%n  decoded: %d MB", decodedBytes.get() / (1024 * 1024)));
+		if(imageLoader != null){
+			sb.append("\n  image cache: ").append(imageLoader.getImageCache());
+			sb.append("\n  thumbnail cache: ").append(imageLoader.getThumbnailCache());
+		}
+		
+		SlideshowEngine<?> s = slideshow;
+		if(s != null){
+			sb.append("\n  slideshow deadlines: met=").append(s.getDeadlinesMet())
+			  .append(" missed=").append(s.getDeadlinesMissed())
+			  .append(" lateness ").append(s.getLatenessHistogram());
+		}
+		return sb.toString();
+	}
+	
+	@Override
+	public void reset() {
+		for(LatencyHistogram histogram : histograms.values())
+			histogram.reset();
+		navigationCount.set(0);
+		decodedBytes.set(0);
+		if(imageLoader != null){
+			imageLoader.getImageCache().resetStatistics();
+			imageLoader.getThumbnailCache().resetStatistics();
+		}
+	}
+	
+	private double millis(Stage stage, double percentile){
+		return histograms.get(stage).getMillisAtPercentile(percentile);
+	}
+}
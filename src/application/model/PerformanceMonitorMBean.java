@@ -0,0 +1,41 @@
+package application.model;
+
+/**
+ * 
+ * @author John Riley
+ * JMX view of the PerformanceMonitor. Latencies are in milliseconds.
+ */
+public interface PerformanceMonitorMBean {
+	
+	long getNavigationCount();
+	
+	double getHandlerLatencyP50();
+	double getHandlerLatencyP99();
+	
+	double getDecodeLatencyP50();
+	double getDecodeLatencyP99();
+	double getDecodeLatencyMax();
+	long getDecodeCount();
+	long getDecodedBytes();
+	
+	double getImageReadyLatencyP50();
+	double getImageReadyLatencyP99();
+	
+	double getPulseLatencyP50();
+	double getPulseLatencyP99();
+	
+	double getNavigationToDisplayP50();
+	double getNavigationToDisplayP99();
+	double getNavigationToDisplayMax();
+	
+	double getImageCacheHitRate();
+	double getThumbnailCacheHitRate();
+	
+	long getSlideshowDeadlinesMet();
+	long getSlideshowDeadlinesMissed();
+	double getSlideshowLatenessP99();
+	
+	String getSummary();
+	
+	void reset();
+}
@@ -0,0 +1,147 @@
+package application.model;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 
+ * @author John Riley
+ * Playlist order backed by an explicit int array of underlying indexes
+ */
+public class PermutationOrder extends PlaylistOrder {
+	
+	private static final long serialVersionUID = 1;
+	
+	private int[] indexes;
+	private int size;
+	
+	/* Every stored index is below this bound, so appends can skip renumbering */
+	private int indexBound;
+	
+	/**
+	 * @param indexes Underlying indexes in visiting order, the array is used as is
+	 * @param size Number of valid elements in the array
+	 */
+	public PermutationOrder(int[] indexes, int size){
+		this.indexes = indexes;
+		this.size = size;
+		this.indexBound = 0;
+		for(int i = 0; i < size; i++)
+			indexBound = Math.max(indexBound, indexes[i] + 1);
+	}
+	
+	public PermutationOrder(int[] indexes){
+		this(indexes, indexes.length);
+	}
+	
+	/**
+	 * @param size
+	 * @return The order visiting every index from 0 to size - 1 in sequence
+	 */
+	public static PermutationOrder identity(int size){
+		int[] indexes = new int[size];
+		for(int i = 0; i < size; i++)
+			indexes[i] = i;
+		return new PermutationOrder(indexes, size);
+	}
+	
+	/**
+	 * Uniform in place Fisher-Yates shuffle over all entries, linear in the playlist size
+	 * @param size
+	 * @param rng
+	 * @return A random order over every index from 0 to size - 1
+	 */
+	public static PermutationOrder shuffled(int size, Random rng){
+		PermutationOrder order = identity(size);
+		order.shuffle(rng);
+		return order;
+	}
+	
+	public void shuffle(Random rng){
+		int[] a = indexes;
+		for(int i = size - 1; i > 0; i--){
+			int j = rng.nextInt(i + 1);
+			int tmp = a[i];
+			a[i] = a[j];
+			a[j] = tmp;
+		}
+	}
+	
+	/**
+	 * Exchanges the entries at the two positions
+	 */
+	public void swap(int i, int j){
+		int tmp = indexes[i];
+		indexes[i] = indexes[j];
+		indexes[j] = tmp;
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public int indexAt(int position) {
+		return indexes[position];
+	}
+	
+	/**
+	 * New entries are appended to the end of the view
+	 */
+	@Override
+	public void entryInserted(int index) {
+		if(index < indexBound){
+			for(int i = 0; i < size; i++){
+				if(indexes[i] >= index)
+					indexes[i]++;
+			}
+			indexBound++;
+		}
+		else{
+			indexBound = index + 1;
+		}
+		
+		if(size == indexes.length)
+			indexes = Arrays.copyOf(indexes, Math.max(16, size + (size >> 1)));
+		indexes[size++] = index;
+	}
+	
+	@Override
+	public int entryRemoved(int index) {
+		int position = -1;
+		int j = 0;
+		for(int i = 0; i < size; i++){
+			int value = indexes[i];
+			if(value == index){
+				position = i;
+				continue;
+			}
+			indexes[j++] = value > index ? value - 1 : value;
+		}
+		size = j;
+		if(index < indexBound)
+			indexBound--;
+		return position;
+	}
+	
+	@Override
+	public int entriesRemoved(int[] removed, int position) {
+		int before = 0;
+		int j = 0;
+		for(int i = 0; i < size; i++){
+			int value = renumber(removed, indexes[i]);
+			if(value < 0){
+				if(i < position)
+					before++;
+				continue;
+			}
+			indexes[j++] = value;
+		}
+		size = j;
+		indexBound = 0;
+		for(int i = 0; i < size; i++)
+			indexBound = Math.max(indexBound, indexes[i] + 1);
+		return before;
+	}
+}
@@ -0,0 +1,213 @@
+package application.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ *
+ * @author John Riley
+ * The metadata of every entry of a playlist laid out as primitive columns,
+ * one slot per entry index, for sorting and filtering without touching the
+ * files or creating an object per entry. The columns follow the entries as
+ * they are inserted and removed; appending is amortized constant time.
+ * Entries whose metadata has not been read yet are marked unknown.
+ */
+public class PlaylistColumns {
+
+	private int size;
+	private byte[] formats;
+	private int[] widths, heights;
+	private long[] sizes, modified, captured;
+	private final BitSet known;
+
+	/* Rank of every entry by name, dropped whenever an entry is added or removed */
+	private int[] nameRanks;
+
+	public PlaylistColumns(int size){
+		int capacity = Math.max(16, size);
+		this.size = size;
+		this.formats = new byte[capacity];
+		this.widths = new int[capacity];
+		this.heights = new int[capacity];
+		this.sizes = new long[capacity];
+		this.modified = new long[capacity];
+		this.captured = new long[capacity];
+		this.known = new BitSet(capacity);
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public void set(int index, ImageMetadata metadata){
+		if(index < 0 || index >= size)
+			return;
+		if(metadata == null){
+			known.clear(index);
+			return;
+		}
+
+		formats[index] = (byte) metadata.getFormat().ordinal();
+		widths[index] = metadata.getWidth();
+		heights[index] = metadata.getHeight();
+		sizes[index] = metadata.getSize();
+		modified[index] = metadata.getLastModified();
+		captured[index] = metadata.getCaptureTime();
+		known.set(index);
+	}
+
+	public boolean isKnown(int index){
+		return known.get(index);
+	}
+
+	public int getKnownCount(){
+		return known.cardinality();
+	}
+
+	public ImageFormat getFormat(int index){
+		return known.get(index) ? ImageFormat.values()[formats[index]] : ImageFormat.UNKNOWN;
+	}
+
+	/**
+	 * @return The width in pixels, or -1 if unknown
+	 */
+	public int getWidth(int index){
+		return known.get(index) ? widths[index] : -1;
+	}
+
+	public int getHeight(int index){
+		return known.get(index) ? heights[index] : -1;
+	}
+
+	/**
+	 * @return Width times height, or -1 if unknown
+	 */
+	public long getPixelCount(int index){
+		if(!known.get(index) || widths[index] <= 0 || heights[index] <= 0)
+			return -1;
+		return (long) widths[index] * heights[index];
+	}
+
+	public long getFileSize(int index){
+		return known.get(index) ? sizes[index] : -1;
+	}
+
+	public long getLastModified(int index){
+		return known.get(index) ? modified[index] : -1;
+	}
+
+	/**
+	 * @return When the photo was taken, or -1 if unknown
+	 */
+	public long getCaptureTime(int index){
+		return known.get(index) ? captured[index] : -1;
+	}
+
+	/**
+	 * @return The rank of every entry by name, or null if not known since the entries last changed
+	 */
+	public int[] getNameRanks(){
+		return nameRanks;
+	}
+
+	public void setNameRanks(int[] nameRanks){
+		this.nameRanks = nameRanks != null && nameRanks.length == size ? nameRanks : null;
+	}
+
+	/**
+	 * Makes room for an entry inserted at the given index, its metadata unknown
+	 */
+	public void entryInserted(int index){
+		if(size == widths.length)
+			grow(size + (size >> 1) + 1);
+
+		int moved = size - index;
+		if(moved > 0){
+			System.arraycopy(formats, index, formats, index + 1, moved);
+			System.arraycopy(widths, index, widths, index + 1, moved);
+			System.arraycopy(heights, index, heights, index + 1, moved);
+			System.arraycopy(sizes, index, sizes, index + 1, moved);
+			System.arraycopy(modified, index, modified, index + 1, moved);
+			System.arraycopy(captured, index, captured, index + 1, moved);
+			IndexedImagePlaylist.shiftBits(known, index, 1);
+		}
+		known.clear(index);
+		nameRanks = null;
+		size++;
+	}
+
+	public void entryRemoved(int index){
+		int moved = size - index - 1;
+		if(moved > 0){
+			System.arraycopy(formats, index + 1, formats, index, moved);
+			System.arraycopy(widths, index + 1, widths, index, moved);
+			System.arraycopy(heights, index + 1, heights, index, moved);
+			System.arraycopy(sizes, index + 1, sizes, index, moved);
+			System.arraycopy(modified, index + 1, modified, index, moved);
+			System.arraycopy(captured, index + 1, captured, index, moved);
+		}
+		known.clear(index);
+		IndexedImagePlaylist.shiftBits(known, index + 1, -1);
+		nameRanks = null;
+		size--;
+	}
+
+	/**
+	 * Same as entryRemoved for several entries, compacting every column once
+	 * @param removed Indexes the entries occupied, in ascending order without repeats
+	 */
+	public void entriesRemoved(int[] removed){
+		int j = 0;
+		for(int i = 0; i < size; i++){
+			if(PlaylistOrder.renumber(removed, i) < 0)
+				continue;
+			formats[j] = formats[i];
+			widths[j] = widths[i];
+			heights[j] = heights[i];
+			sizes[j] = sizes[i];
+			modified[j] = modified[i];
+			captured[j] = captured[i];
+			j++;
+		}
+		IndexedImagePlaylist.removeBits(known, removed);
+		nameRanks = null;
+		size = j;
+	}
+
+	/**
+	 * Exchanges the metadata of two entries, for when the entries trade places
+	 */
+	public void swap(int i, int j){
+		byte format = formats[i];
+		formats[i] = formats[j];
+		formats[j] = format;
+		int width = widths[i];
+		widths[i] = widths[j];
+		widths[j] = width;
+		int height = heights[i];
+		heights[i] = heights[j];
+		heights[j] = height;
+		long value = sizes[i];
+		sizes[i] = sizes[j];
+		sizes[j] = value;
+		value = modified[i];
+		modified[i] = modified[j];
+		modified[j] = value;
+		value = captured[i];
+		captured[i] = captured[j];
+		captured[j] = value;
+		boolean isKnown = known.get(i);
+		known.set(i, known.get(j));
+		known.set(j, isKnown);
+		nameRanks = null;
+	}
+
+	private void grow(int capacity){
+		formats = Arrays.copyOf(formats, capacity);
+		widths = Arrays.copyOf(widths, capacity);
+		heights = Arrays.copyOf(heights, capacity);
+		sizes = Arrays.copyOf(sizes, capacity);
+		modified = Arrays.copyOf(modified, capacity);
+		captured = Arrays.copyOf(captured, capacity);
+	}
+}
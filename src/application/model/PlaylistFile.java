@@ -0,0 +1,350 @@
+package application.model;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * @author John Riley
+ * Reads and writes the binary image playlist format (.sip).
+ *
+ * Layout, all numbers big endian:
+ *   int    magic "SIPL"
+ *   short  format version
+ *   short  flags, reserved
+ *   int    number of entries
+ *   int    number of directories
+ *   int[]  file offset of every directory record (version 2 and later)
+ *   int[]  file offset of every entry record (version 2 and later)
+ *   directories: int byte length, UTF-8 bytes
+ *   entries:     int directory index, short byte length, UTF-8 file name
+ *
+ * Every entry is split at its last '/' into a directory prefix, stored once
+ * in the directory table, and a file name. The offset tables let open map
+ * the file and read single entries without parsing the rest of it.
+ * Playlists written with Java serialization by older versions are still read.
+ */
+public class PlaylistFile {
+
+	public static final int MAGIC = 0x5349504C;
+	public static final short VERSION = 2;
+
+	/* Size of the fixed part of the header */
+	static final int HEADER_SIZE = 16;
+
+	/* First two bytes of a Java serialization stream */
+	private static final int SERIALIZATION_MAGIC = 0xACED;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private PlaylistFile(){
+	}
+
+	/**
+	 * Opens a playlist without reading its entries. Current playlists are
+	 * memory mapped and entries are decoded from the mapping when requested,
+	 * older files are read completely.
+	 * @param filePath
+	 * @return The playlist stored in the file
+	 */
+	public static ImagePlaylist open(String filePath) throws ClassNotFoundException, IOException {
+		Path path = Paths.get(filePath);
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			if(channel.size() >= HEADER_SIZE){
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				while(header.hasRemaining() && channel.read(header) >= 0);
+				header.flip();
+				
+				if(header.getInt(0) == MAGIC && header.getShort(4) >= 2){
+					ImagePlaylist playlist = new ImagePlaylist(0);
+					playlist.imageFiles = new MappedPathList(path, channel);
+					return playlist;
+				}
+			}
+		}
+		return read(filePath);
+	}
+
+	/**
+	 * Reads every entry of the playlist into memory
+	 * @param filePath
+	 * @return The playlist stored in the file
+	 */
+	public static ImagePlaylist read(String filePath) throws ClassNotFoundException, IOException {
+		Path path = Paths.get(filePath);
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+			ChannelReader in = new ChannelReader(channel);
+			in.require(2);
+			int start = in.buffer.getShort(0) & 0xFFFF;
+			if(start == SERIALIZATION_MAGIC)
+				return readLegacy(path);
+
+			return readEntries(in);
+		}
+	}
+
+	public static void write(String filePath, ImagePlaylist playlist) throws IOException {
+		Path target = Paths.get(filePath).toAbsolutePath();
+		
+		//Saving over the file the playlist is mapped from, the entries are copied to the
+		//heap so the playlist no longer refers to the mapping. The mapping itself is only
+		//gone once it is garbage collected, until then Windows keeps the file from
+		//being replaced and the move below fails with a message saying so.
+		if(playlist.imageFiles instanceof MappedPathList && ((MappedPathList) playlist.imageFiles).maps(target))
+			playlist.mutableFiles();
+		
+		List<String> entries = playlist.imageFiles;
+		int size = entries.size();
+
+		//Build the shared directory table
+		Map<String, Integer> directoryIndexes = new HashMap<String, Integer>();
+		List<byte[]> directories = new ArrayList<byte[]>();
+		int[] entryDirectories = new int[size];
+		for(int i = 0; i < size; i++){
+			String directory = getDirectory(entries.get(i));
+			Integer index = directoryIndexes.get(directory);
+			if(index == null){
+				index = directories.size();
+				directoryIndexes.put(directory, index);
+				directories.add(directory.getBytes(StandardCharsets.UTF_8));
+			}
+			entryDirectories[i] = index;
+		}
+
+		//Write to a temporary file first so a failure never leaves a truncated playlist behind
+		Path temp = Files.createTempFile(target.getParent(), ".playlist", ".tmp");
+		try{
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+														StandardOpenOption.TRUNCATE_EXISTING)){
+				int directoryCount = directories.size();
+				ChannelWriter out = new ChannelWriter(channel);
+				out.require(HEADER_SIZE);
+				out.buffer.putInt(MAGIC);
+				out.buffer.putShort(VERSION);
+				out.buffer.putShort((short) 0);
+				out.buffer.putInt(size);
+				out.buffer.putInt(directoryCount);
+
+				//Leave room for the offset tables, they are filled in once the records are written
+				long tableStart = HEADER_SIZE;
+				out.flush();
+				channel.position(tableStart + 4L * (directoryCount + (long) size));
+
+				int[] directoryOffsets = new int[directoryCount];
+				for(int i = 0; i < directoryCount; i++){
+					byte[] directory = directories.get(i);
+					directoryOffsets[i] = out.offset();
+					out.require(4 + directory.length);
+					out.buffer.putInt(directory.length);
+					out.buffer.put(directory);
+				}
+
+				int[] entryOffsets = new int[size];
+				for(int i = 0; i < size; i++){
+					String entry = entries.get(i);
+					byte[] name = entry.substring(getNameStart(entry)).getBytes(StandardCharsets.UTF_8);
+					if(name.length > 0xFFFF)
+						throw new IOException("File name too long: " + entry);
+
+					entryOffsets[i] = out.offset();
+					out.require(6 + name.length);
+					out.buffer.putInt(entryDirectories[i]);
+					out.buffer.putShort((short) name.length);
+					out.buffer.put(name);
+				}
+				//Readers map the whole file, so its end has to be addressable as well
+				out.offset();
+				out.flush();
+
+				channel.position(tableStart);
+				out.writeInts(directoryOffsets);
+				out.writeInts(entryOffsets);
+				out.flush();
+				channel.force(false);
+			}
+			try{
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch(FileSystemException e){
+				throw new IOException("Cannot replace " + target + ", it is still open, possibly " +
+									"by this playlist. Save the playlist under a different name.", e);
+			}
+		}
+		finally{
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static ImagePlaylist readEntries(ChannelReader in) throws IOException {
+		in.require(16);
+		ByteBuffer buffer = in.buffer;
+		if(buffer.getInt() != MAGIC)
+			throw new IOException("The file is not an image playlist");
+
+		short version = buffer.getShort();
+		if(version < 1 || version > VERSION)
+			throw new IOException("Unsupported playlist version: " + version);
+		buffer.getShort();
+
+		int size = buffer.getInt();
+		int directoryCount = buffer.getInt();
+		if(size < 0 || directoryCount < 0)
+			throw new IOException("Corrupt playlist header");
+
+		//Records are read in sequence, the offset tables are not needed
+		if(version >= 2)
+			in.skip(4L * (directoryCount + (long) size));
+
+		String[] directories = new String[directoryCount];
+		for(int i = 0; i < directoryCount; i++){
+			in.require(4);
+			directories[i] = in.readString(buffer.getInt());
+		}
+
+		ImagePlaylist playlist = new ImagePlaylist(size);
+		for(int i = 0; i < size; i++){
+			in.require(6);
+			int directory = buffer.getInt();
+			int length = buffer.getShort() & 0xFFFF;
+			if(directory < 0 || directory >= directoryCount)
+				throw new IOException("Corrupt playlist entry " + i);
+
+			playlist.imageFiles.add(directories[directory] + in.readString(length));
+		}
+		return playlist;
+	}
+
+	private static ImagePlaylist readLegacy(Path path) throws ClassNotFoundException, IOException {
+		try(InputStream file = Files.newInputStream(path);
+			ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(file))){
+			return (ImagePlaylist) input.readObject();
+		}
+	}
+
+	/**
+	 * @param entry
+	 * @return Everything up to and including the last '/' of the entry
+	 */
+	static String getDirectory(String entry){
+		return entry.substring(0, getNameStart(entry));
+	}
+
+	static int getNameStart(String entry){
+		return entry.lastIndexOf('/') + 1;
+	}
+
+	/**
+	 * Reads a channel through a buffer, refilling it whenever more bytes are required
+	 */
+	private static class ChannelReader {
+		final FileChannel channel;
+		ByteBuffer buffer;
+
+		ChannelReader(FileChannel channel){
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			this.buffer.flip();
+		}
+
+		void require(int count) throws IOException {
+			if(buffer.remaining() >= count)
+				return;
+
+			if(buffer.capacity() < count){
+				ByteBuffer larger = ByteBuffer.allocate(count);
+				larger.put(buffer);
+				buffer = larger;
+			}
+			else{
+				buffer.compact();
+			}
+
+			while(buffer.position() < count){
+				if(channel.read(buffer) < 0)
+					throw new EOFException("Unexpected end of playlist file");
+			}
+			buffer.flip();
+		}
+
+		void skip(long count) throws IOException {
+			int buffered = (int) Math.min(count, buffer.remaining());
+			buffer.position(buffer.position() + buffered);
+			count -= buffered;
+			if(count > 0)
+				channel.position(channel.position() + count);
+		}
+
+		String readString(int length) throws IOException {
+			if(length < 0)
+				throw new IOException("Corrupt playlist string length");
+
+			require(length);
+			String str = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+									length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+			return str;
+		}
+	}
+
+	/**
+	 * Writes to a channel through a buffer, flushing it whenever it runs out of room
+	 */
+	private static class ChannelWriter {
+		final FileChannel channel;
+		ByteBuffer buffer;
+
+		ChannelWriter(FileChannel channel){
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		}
+
+		void require(int count) throws IOException {
+			if(buffer.remaining() >= count)
+				return;
+
+			flush();
+			if(buffer.capacity() < count)
+				buffer = ByteBuffer.allocate(count);
+		}
+
+		/**
+		 * @return File offset the next byte will be written at
+		 */
+		int offset() throws IOException {
+			long offset = channel.position() + buffer.position();
+			if(offset > Integer.MAX_VALUE)
+				throw new IOException("Playlist is too large to be saved");
+			return (int) offset;
+		}
+
+		void writeInts(int[] values) throws IOException {
+			for(int value : values){
+				require(4);
+				buffer.putInt(value);
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package application.model;
+
+/**
+ *
+ * @author John Riley
+ * Decides which entries a sorted view of a playlist shows. Filters only look
+ * at the metadata columns, and entries whose metadata is unknown never pass
+ * a filter that needs it.
+ */
+public abstract class PlaylistFilter {
+
+	/**
+	 * @param columns Metadata of the playlist
+	 * @param index Index of the entry in the underlying list
+	 * @return true to show the entry
+	 */
+	public abstract boolean accept(PlaylistColumns columns, int index);
+
+	/**
+	 * Every entry, known or not
+	 */
+	public static final PlaylistFilter ALL = new PlaylistFilter(){
+		@Override
+		public boolean accept(PlaylistColumns columns, int index) {
+			return true;
+		}
+	};
+
+	public static final PlaylistFilter LANDSCAPE = new PlaylistFilter(){
+		@Override
+		public boolean accept(PlaylistColumns columns, int index) {
+			return columns.getWidth(index) > columns.getHeight(index) && columns.getHeight(index) > 0;
+		}
+	};
+
+	public static final PlaylistFilter PORTRAIT = new PlaylistFilter(){
+		@Override
+		public boolean accept(PlaylistColumns columns, int index) {
+			return columns.getHeight(index) > columns.getWidth(index) && columns.getWidth(index) > 0;
+		}
+	};
+
+	/**
+	 * @param megapixels
+	 * @return A filter passing images with more than the given number of pixels
+	 */
+	public static PlaylistFilter largerThan(double megapixels){
+		final long pixels = (long) (megapixels * 1000000);
+		return new PlaylistFilter(){
+			@Override
+			public boolean accept(PlaylistColumns columns, int index) {
+				return columns.getPixelCount(index) > pixels;
+			}
+		};
+	}
+
+	/**
+	 * @return A filter passing only entries both filters pass
+	 */
+	public PlaylistFilter and(final PlaylistFilter other){
+		final PlaylistFilter self = this;
+		return new PlaylistFilter(){
+			@Override
+			public boolean accept(PlaylistColumns columns, int index) {
+				return self.accept(columns, index) && other.accept(columns, index);
+			}
+		};
+	}
+}
@@ -0,0 +1,82 @@
+package application.model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * 
+ * @author John Riley
+ * A view over the entries of a playlist that decides in which order they are
+ * visited, without reordering the underlying list. Positions are what the
+ * user navigates through, indexes are locations in the underlying list.
+ */
+public abstract class PlaylistOrder implements Serializable {
+	
+	private static final long serialVersionUID = 1;
+	
+	/**
+	 * @return Number of positions in the view
+	 */
+	public abstract int size();
+	
+	/**
+	 * @param position
+	 * @return Index in the underlying list of the entry at the given position
+	 */
+	public abstract int indexAt(int position);
+	
+	/**
+	 * Called after an entry was inserted into the underlying list
+	 * @param index Index the new entry was inserted at
+	 */
+	public abstract void entryInserted(int index);
+	
+	/**
+	 * Called after an entry was removed from the underlying list
+	 * @param index Index the entry occupied
+	 * @return The position the entry had in this view, or -1 if it was not visible
+	 */
+	public abstract int entryRemoved(int index);
+	
+	/**
+	 * Called after several entries were removed from the underlying list at
+	 * once. Removes them one at a time unless the order compacts itself in one pass.
+	 * @param removed Indexes the entries occupied, in ascending order without repeats
+	 * @param position A position in this view, usually the current one
+	 * @return Number of positions before the given one that were removed with the entries
+	 */
+	public int entriesRemoved(int[] removed, int position){
+		int before = 0;
+		for(int i = removed.length - 1; i >= 0; i--){
+			int removedPosition = entryRemoved(removed[i]);
+			if(removedPosition > -1 && removedPosition < position){
+				position--;
+				before++;
+			}
+		}
+		return before;
+	}
+	
+	/**
+	 * @param removed Indexes removed, in ascending order
+	 * @param index An index from before the removal
+	 * @return The index the entry has after the removal, or -1 if it was removed
+	 */
+	static int renumber(int[] removed, int index){
+		int found = Arrays.binarySearch(removed, index);
+		return found >= 0 ? -1 : index + found + 1;
+	}
+	
+	/**
+	 * @param index Index in the underlying list
+	 * @return Position of the entry in this view, or -1 if it is not visible
+	 */
+	public int positionOf(int index){
+		int size = size();
+		for(int i = 0; i < size; i++){
+			if(indexAt(i) == index)
+				return i;
+		}
+		return -1;
+	}
+}
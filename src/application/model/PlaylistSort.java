@@ -0,0 +1,247 @@
+package application.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ *
+ * @author John Riley
+ * Sorts the entries of a playlist by one of their metadata columns. Keys are
+ * packed into longs and ordered with a radix sort on 16 bit digits, so a
+ * sort is a few linear passes over primitive arrays whatever the playlist
+ * size. Names are ranked once and the ranks kept with the columns until
+ * the entries change, so sorting by name again is as cheap as by size.
+ * Entries whose metadata is unknown keep their list order after the rest,
+ * in either direction.
+ */
+public class PlaylistSort {
+
+	public enum Key {
+		NAME,
+		/* Capture time from the EXIF block, falling back to the modification time */
+		DATE_TAKEN,
+		DATE_MODIFIED,
+		SIZE,
+		/* Pixel count */
+		DIMENSIONS
+	}
+
+	private static final int DIGIT_BITS = 16;
+	private static final int RADIX = 1 << DIGIT_BITS;
+
+	/* Characters of a name packed into one sort key, ties are sorted by the next ones */
+	private static final int CHUNK_LENGTH = 64 / DIGIT_BITS;
+
+	/* Ties shorter than this are sorted by comparing the names instead, a radix
+	 * pass costs a sweep over all the digit counts however short the run is */
+	private static final int MIN_RADIX_RUN = 4096;
+
+	/**
+	 * @param paths Underlying list of the playlist
+	 * @param columns Metadata of the same entries
+	 * @param key Column to sort by, or null to keep list order and only filter
+	 * @param descending
+	 * @param filter Entries to keep, or null for all of them
+	 * @return Indexes of the kept entries in sorted order
+	 */
+	public static int[] sort(List<String> paths, PlaylistColumns columns, Key key, boolean descending,
+							PlaylistFilter filter){
+		int count = paths.size();
+		long[] keys = new long[count];
+		int[] indexes = new int[count];
+		int[] unknown = new int[count];
+		int[] counts = new int[RADIX];
+		int[] ranks = key == Key.NAME ? rankNames(paths, columns, counts) : null;
+		int known = 0, unknowns = 0;
+
+		for(int index = 0; index < count; index++){
+			if(filter != null && !filter.accept(columns, index))
+				continue;
+
+			if(key == null){
+				indexes[known++] = index;
+				continue;
+			}
+
+			long value = ranks != null ? ranks[index] : numericKey(columns, index, key);
+			if(value < 0){
+				unknown[unknowns++] = index;
+				continue;
+			}
+			keys[known] = descending ? ~value : value;
+			indexes[known++] = index;
+		}
+
+		if(key != null)
+			radixSort(keys, indexes, 0, known, counts);
+
+		int[] sorted = Arrays.copyOf(indexes, known + unknowns);
+		System.arraycopy(unknown, 0, sorted, known, unknowns);
+		return sorted;
+	}
+
+	/**
+	 * @return The rank of every entry by file name, ignoring case, kept with
+	 * the columns until the entries change
+	 */
+	private static int[] rankNames(List<String> paths, PlaylistColumns columns, int[] counts){
+		int[] ranks = columns.getNameRanks();
+		if(ranks != null)
+			return ranks;
+
+		int count = paths.size();
+		String[] names = new String[count];
+		long[] keys = new long[count];
+		int[] indexes = new int[count];
+		for(int index = 0; index < count; index++){
+			names[index] = getName(paths.get(index));
+			keys[index] = chunkKey(names[index], 0);
+			indexes[index] = index;
+		}
+		radixSort(keys, indexes, 0, count, counts);
+		sortTies(keys, indexes, 0, count, names, 0, counts);
+
+		ranks = new int[count];
+		for(int i = 0; i < count; i++)
+			ranks[indexes[i]] = i;
+		columns.setNameRanks(ranks);
+		return ranks;
+	}
+
+	/**
+	 * @return The key of an entry, or -1 if its metadata is unknown
+	 */
+	private static long numericKey(PlaylistColumns columns, int index, Key key){
+		switch(key){
+			case DATE_TAKEN:
+				long captured = columns.getCaptureTime(index);
+				return captured >= 0 ? captured : columns.getLastModified(index);
+			case DATE_MODIFIED:
+				return columns.getLastModified(index);
+			case SIZE:
+				return columns.getFileSize(index);
+			case DIMENSIONS:
+				return columns.getPixelCount(index);
+			default:
+				return -1;
+		}
+	}
+
+	static String getName(String imagePath){
+		int slash = Math.max(imagePath.lastIndexOf('/'), imagePath.lastIndexOf('\\'));
+		return imagePath.substring(slash + 1);
+	}
+
+	/**
+	 * Packs the characters of a name from the given offset on, folded the way
+	 * compareToIgnoreCase folds them, so the keys order like the names do.
+	 * Names that end inside the chunk are padded with zeros.
+	 */
+	private static long chunkKey(String name, int offset){
+		long key = 0;
+		for(int i = offset; i < offset + CHUNK_LENGTH; i++){
+			char c = i < name.length() ? fold(name.charAt(i)) : 0;
+			key = (key << DIGIT_BITS) | c;
+		}
+		return key;
+	}
+
+	private static char fold(char c){
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/**
+	 * Stable LSD radix sort of the keys from start to end as unsigned values,
+	 * carrying the indexes along. Passes over a digit every key shares are skipped.
+	 */
+	private static void radixSort(long[] keys, int[] indexes, int start, int end, int[] counts){
+		int n = end - start;
+		if(n < 2)
+			return;
+
+		long[] keyBuffer = new long[n];
+		int[] indexBuffer = new int[n];
+		long[] fromKeys = keys, toKeys = keyBuffer;
+		int[] fromIndexes = indexes, toIndexes = indexBuffer;
+		int from = start, to = 0;
+
+		for(int shift = 0; shift < 64; shift += DIGIT_BITS){
+			Arrays.fill(counts, 0);
+			for(int i = from; i < from + n; i++)
+				counts[(int) (fromKeys[i] >>> shift) & (RADIX - 1)]++;
+			if(counts[(int) (fromKeys[from] >>> shift) & (RADIX - 1)] == n)
+				continue;
+
+			int offset = to;
+			for(int digit = 0; digit < RADIX; digit++){
+				int c = counts[digit];
+				counts[digit] = offset;
+				offset += c;
+			}
+			for(int i = from; i < from + n; i++){
+				int slot = counts[(int) (fromKeys[i] >>> shift) & (RADIX - 1)]++;
+				toKeys[slot] = fromKeys[i];
+				toIndexes[slot] = fromIndexes[i];
+			}
+
+			long[] keySwap = fromKeys;
+			fromKeys = toKeys;
+			toKeys = keySwap;
+			int[] indexSwap = fromIndexes;
+			fromIndexes = toIndexes;
+			toIndexes = indexSwap;
+			int swap = from;
+			from = to;
+			to = swap;
+		}
+
+		if(fromKeys != keys){
+			System.arraycopy(fromKeys, 0, keys, start, n);
+			System.arraycopy(fromIndexes, 0, indexes, start, n);
+		}
+	}
+
+	/**
+	 * Orders runs of names that share a chunk by the chunks after it, and
+	 * short runs by comparing the names
+	 */
+	private static void sortTies(long[] keys, int[] indexes, int start, int end, final String[] names,
+								int depth, int[] counts){
+		int runStart = start;
+		while(runStart < end){
+			int runEnd = runStart + 1;
+			while(runEnd < end && keys[runEnd] == keys[runStart])
+				runEnd++;
+
+			//A zero in the last character means every name of the run ended, so they are equal
+			if(runEnd - runStart > 1 && (keys[runStart] & (RADIX - 1)) != 0){
+				if(runEnd - runStart < MIN_RADIX_RUN){
+					sortByName(indexes, runStart, runEnd, names);
+				}
+				else{
+					int offset = (depth + 1) * CHUNK_LENGTH;
+					for(int i = runStart; i < runEnd; i++)
+						keys[i] = chunkKey(names[indexes[i]], offset);
+					radixSort(keys, indexes, runStart, runEnd, counts);
+					sortTies(keys, indexes, runStart, runEnd, names, depth + 1, counts);
+				}
+			}
+			runStart = runEnd;
+		}
+	}
+
+	private static void sortByName(int[] indexes, int start, int end, final String[] names){
+		Integer[] run = new Integer[end - start];
+		for(int i = start; i < end; i++)
+			run[i - start] = indexes[i];
+		Arrays.sort(run, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				return names[a].compareToIgnoreCase(names[b]);
+			}
+		});
+		for(int i = start; i < end; i++)
+			indexes[i] = run[i - start];
+	}
+}
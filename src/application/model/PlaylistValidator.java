@@ -0,0 +1,257 @@
+package application.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javafx.application.Platform;
+
+/**
+ *
+ * @author John Riley
+ * Checks in the background that every entry of a playlist is still a
+ * readable file, and flags the ones that are not so navigation skips them.
+ * Entries are walked in list order whatever order the playlist is visited
+ * in, so entries hidden by a filter are checked too and none twice.
+ * Entries are taken from the playlist in batches on the JavaFX application
+ * thread, checked on a small pool of threads, and the results handed back
+ * to the application thread, so the playlist is never touched from anywhere
+ * else and the UI is never kept waiting on the disk.
+ */
+public class PlaylistValidator {
+
+	/* Enough concurrent checks to keep a network share busy without flooding it */
+	private static final int MAX_CONCURRENT_CHECKS = 8;
+
+	private static final int BATCH_SIZE = 512;
+
+	/**
+	 * Receives the progress of a validation on the JavaFX application thread
+	 */
+	public interface ValidationListener {
+		/**
+		 * @param checked Number of entries checked so far
+		 * @param total Number of entries in the playlist
+		 * @param invalid Number of entries found missing or unreadable so far
+		 */
+		void onProgress(int checked, int total, int invalid);
+
+		/**
+		 * @param checked Number of entries checked
+		 * @param invalid Number of entries found missing or unreadable
+		 * @param cancelled true if the validation was stopped before finishing
+		 */
+		void onValidationFinished(int checked, int invalid, boolean cancelled);
+	}
+
+	private final IndexedImagePlaylist playlist;
+	private final ValidationListener listener;
+	private final MetadataIndex metadataIndex;
+
+	/* Only read and written on the JavaFX application thread */
+	private int checked, invalid;
+
+	private volatile boolean cancelled, started;
+
+	public PlaylistValidator(IndexedImagePlaylist playlist, ValidationListener listener){
+		this(playlist, listener, null);
+	}
+
+	/**
+	 * @param metadataIndex Index to check the entries against and fill in as they
+	 * are checked, or null to only check that the files can be read
+	 */
+	public PlaylistValidator(IndexedImagePlaylist playlist, ValidationListener listener,
+							MetadataIndex metadataIndex){
+		this.playlist = playlist;
+		this.listener = listener;
+		this.metadataIndex = metadataIndex;
+	}
+
+	/**
+	 * Starts checking the playlist in the background
+	 */
+	public void start(){
+		if(started)
+			return;
+		started = true;
+
+		Thread thread = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				ExecutorService pool = Executors.newFixedThreadPool(MAX_CONCURRENT_CHECKS,
+																	new ImageLoader.DaemonThreadFactory("playlist-validator"));
+				try{
+					validate(pool);
+				}
+				catch(InterruptedException e){
+					cancelled = true;
+				}
+				finally{
+					pool.shutdownNow();
+				}
+				finish();
+			}
+		}, "playlist-validation");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	public void cancel(){
+		cancelled = true;
+	}
+
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	public IndexedImagePlaylist getPlaylist(){
+		return playlist;
+	}
+
+	/**
+	 * @param imagePath URL or path of an image
+	 * @return true if it names a regular file that can be read and holds an image
+	 */
+	public static boolean isReadable(String imagePath){
+		File file = AppUtils.toFile(imagePath);
+		return file != null && file.isFile() && file.canRead() && AppUtils.isImageContent(file);
+	}
+
+	/**
+	 * Checks an entry by its content rather than its name, which catches
+	 * files that are not really images. The metadata index is used when
+	 * there is one, or else the first bytes of the file are read.
+	 * @param found Receives the metadata read, if any
+	 */
+	private boolean isValid(String imagePath, ImageMetadata[] found, int slot){
+		if(metadataIndex == null)
+			return isReadable(imagePath);
+
+		ImageMetadata metadata = metadataIndex.lookup(imagePath);
+		found[slot] = metadata;
+		return metadata != null && metadata.getFormat().isSupported();
+	}
+
+	private void validate(ExecutorService pool) throws InterruptedException {
+		int next = 0;
+		while(!cancelled){
+			final Batch batch = fetch(next);
+			if(batch == null || batch.paths.isEmpty())
+				return;
+
+			final ImageMetadata[] metadata = new ImageMetadata[batch.paths.size()];
+			List<Callable<Boolean>> checks = new ArrayList<Callable<Boolean>>(batch.paths.size());
+			for(int i = 0; i < batch.paths.size(); i++){
+				final String imagePath = batch.paths.get(i);
+				final int slot = i;
+				checks.add(new Callable<Boolean>(){
+					@Override
+					public Boolean call() {
+						return cancelled || isValid(imagePath, metadata, slot);
+					}
+				});
+			}
+
+			final boolean[] readable = new boolean[checks.size()];
+			List<Future<Boolean>> results = pool.invokeAll(checks);
+			for(int i = 0; i < readable.length; i++){
+				try{
+					readable[i] = results.get(i).get();
+				}
+				catch(ExecutionException e){
+					readable[i] = false;
+				}
+			}
+
+			if(cancelled)
+				return;
+
+			Platform.runLater(new Runnable(){
+				@Override
+				public void run() {
+					apply(batch, readable, metadata);
+				}
+			});
+			next = batch.start + batch.paths.size();
+		}
+	}
+
+	/**
+	 * Reads the next batch of entries on the JavaFX application thread
+	 * @return The batch, or null if the validation was cancelled while waiting
+	 */
+	private Batch fetch(final int start) throws InterruptedException {
+		FutureTask<Batch> task = new FutureTask<Batch>(new Callable<Batch>(){
+			@Override
+			public Batch call() {
+				int end = Math.min(playlist.entryCount(), start + BATCH_SIZE);
+				List<String> paths = new ArrayList<String>(Math.max(0, end - start));
+				for(int index = start; index < end; index++)
+					paths.add(playlist.getEntry(index));
+				return new Batch(start, paths);
+			}
+		});
+		Platform.runLater(task);
+		try{
+			return task.get();
+		}
+		catch(ExecutionException e){
+			return null;
+		}
+	}
+
+	/**
+	 * Flags the unreadable entries of a batch and records the metadata of the
+	 * rest, skipping any that were moved or replaced while the batch was
+	 * being checked
+	 */
+	private void apply(Batch batch, boolean[] readable, ImageMetadata[] metadata){
+		if(cancelled)
+			return;
+
+		for(int i = 0; i < readable.length; i++){
+			int index = batch.start + i;
+			String imagePath = batch.paths.get(i);
+			if(imagePath == null || !imagePath.equals(playlist.getEntry(index)))
+				continue;
+
+			if(readable[i]){
+				if(metadata[i] != null)
+					playlist.setEntryMetadata(index, metadata[i]);
+				continue;
+			}
+
+			playlist.markEntryInvalid(index);
+			invalid++;
+		}
+		checked += readable.length;
+		listener.onProgress(checked, playlist.entryCount(), invalid);
+	}
+
+	private void finish(){
+		Platform.runLater(new Runnable(){
+			@Override
+			public void run() {
+				listener.onValidationFinished(checked, invalid, cancelled);
+			}
+		});
+	}
+
+	private static class Batch {
+		final int start;
+		final List<String> paths;
+
+		Batch(int start, List<String> paths){
+			this.start = start;
+			this.paths = paths;
+		}
+	}
+}
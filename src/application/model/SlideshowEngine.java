@@ -0,0 +1,451 @@
+package application.model;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author John Riley
+ * Runs a slideshow over an IndexedImagePlaylist without depending on any user
+ * interface. The engine advances the playlist on a schedule set by its
+ * SlideshowPolicy, decodes each image with a FrameDecoder and hands the
+ * result to every registered FrameSink. A window is just one kind of sink,
+ * a log or a benchmark harness work just as well.
+ *
+ * Every frame has a deadline, the moment the previous frame's dwell time runs
+ * out. The next image is decoded ahead of that deadline by the time the
+ * DecodeCostModel predicts for its file size, and is held back until the
+ * deadline arrives. Frames that are still decoding when their deadline passes
+ * are counted as missed and shown as soon as they are ready.
+ *
+ * The playlist is only touched through the playlist executor, so a playlist
+ * owned by the JavaFX application thread can be driven by passing an executor
+ * that runs on that thread. Decoding and sinks run on the engine's own thread.
+ * @param <F> Type of the decoded frames
+ */
+public class SlideshowEngine<F> {
+
+	/**
+	 * Turns a playlist entry into a frame
+	 */
+	public interface FrameDecoder<F> {
+		F decode(String imagePath) throws Exception;
+	}
+
+	/**
+	 * Receives frames on the engine thread
+	 */
+	public interface FrameSink<F> {
+		void showFrame(int position, String imagePath, F frame);
+		void showError(int position, String imagePath, Exception e);
+	}
+
+	/* Runs tasks on the calling thread, for playlists not owned by another thread */
+	public static final Executor DIRECT_EXECUTOR = new Executor(){
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	/* Decoding starts this much earlier than predicted, on top of the margin */
+	private static final double LEAD_FACTOR = 1.5;
+	private static final long LEAD_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(30);
+
+	private final IndexedImagePlaylist playlist;
+	private final FrameDecoder<F> decoder;
+	private final Executor playlistExecutor;
+	private final List<FrameSink<F>> sinks;
+	private final SlideshowPolicy policy;
+	private final DecodeCostModel costModel;
+
+	private final LatencyHistogram decodeHistogram, latenessHistogram;
+	private final AtomicLong framesShown, framesFailed, deadlinesMet, deadlinesMissed;
+
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> pendingTask;
+	private volatile boolean running;
+
+	/* Incremented whenever the schedule is thrown away, so stale tasks can tell */
+	private long generation;
+
+	public SlideshowEngine(IndexedImagePlaylist playlist, FrameDecoder<F> decoder,
+							SlideshowPolicy policy, Executor playlistExecutor){
+		this.playlist = playlist;
+		this.decoder = decoder;
+		this.policy = policy != null ? policy : new SlideshowPolicy();
+		this.playlistExecutor = playlistExecutor != null ? playlistExecutor : DIRECT_EXECUTOR;
+		this.sinks = new CopyOnWriteArrayList<FrameSink<F>>();
+		this.costModel = new DecodeCostModel();
+		this.decodeHistogram = new LatencyHistogram();
+		this.latenessHistogram = new LatencyHistogram();
+		this.framesShown = new AtomicLong();
+		this.framesFailed = new AtomicLong();
+		this.deadlinesMet = new AtomicLong();
+		this.deadlinesMissed = new AtomicLong();
+	}
+
+	public void addSink(FrameSink<F> sink){
+		if(sink != null)
+			sinks.add(sink);
+	}
+
+	public void removeSink(FrameSink<F> sink){
+		sinks.remove(sink);
+	}
+
+	public SlideshowPolicy getPolicy(){
+		return policy;
+	}
+
+	public IndexedImagePlaylist getPlaylist(){
+		return playlist;
+	}
+
+	public boolean isRunning(){
+		return running;
+	}
+
+	public long getFramesShown(){
+		return framesShown.get();
+	}
+
+	public long getFramesFailed(){
+		return framesFailed.get();
+	}
+
+	public long getDeadlinesMet(){
+		return deadlinesMet.get();
+	}
+
+	public long getDeadlinesMissed(){
+		return deadlinesMissed.get();
+	}
+
+	public LatencyHistogram getDecodeHistogram(){
+		return decodeHistogram;
+	}
+
+	/**
+	 * @return How late frames were shown relative to their deadline
+	 */
+	public LatencyHistogram getLatenessHistogram(){
+		return latenessHistogram;
+	}
+
+	public DecodeCostModel getCostModel(){
+		return costModel;
+	}
+
+	/**
+	 * Applies the shuffle mode of the policy and shows the current image,
+	 * advancing from there on every dwell time
+	 */
+	public synchronized void start(){
+		if(running)
+			return;
+
+		running = true;
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+				new ImageLoader.DaemonThreadFactory("slideshow"));
+		playlistExecutor.execute(new Runnable(){
+			@Override
+			public void run() {
+				applyShuffleMode();
+				presentCurrent();
+			}
+		});
+	}
+
+	public synchronized void stop(){
+		running = false;
+		generation++;
+		if(pendingTask != null){
+			pendingTask.cancel(false);
+			pendingTask = null;
+		}
+		if(scheduler != null){
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Moves to the next image right away and restarts its dwell time
+	 */
+	public void showNext(){
+		navigate(1);
+	}
+
+	public void showPrevious(){
+		navigate(-1);
+	}
+
+	/**
+	 * Restarts the dwell time of the current entry, for when the playlist was
+	 * navigated by someone other than the engine. Must run on the playlist executor.
+	 */
+	public void reschedule(){
+		if(!running)
+			return;
+
+		String imagePath = playlist.get();
+		int position = playlist.currentIndex();
+		scheduleFollowing(System.nanoTime(), position, imagePath);
+	}
+
+	protected void applyShuffleMode(){
+		switch(policy.getShuffleMode()){
+			case SHUFFLE:
+				playlist.shuffleIndices(new Random());
+				break;
+			case LAZY:
+				playlist.shuffleLazily(new Random());
+				break;
+			case WEIGHTED:
+				if(!playlist.isShuffledByWeight())
+					playlist.shuffleWeighted(new Random(), WeightedShuffleOrder.DEFAULT_NO_REPEAT_WINDOW);
+				break;
+			default:
+				break;
+		}
+	}
+
+	protected void navigate(final int step){
+		playlistExecutor.execute(new Runnable(){
+			@Override
+			public void run() {
+				if(!running || playlist.isEmpty())
+					return;
+
+				if(step > 0){
+					if(!advance())
+						return;
+				}
+				else{
+					playlist.prev();
+				}
+				presentCurrent();
+			}
+		});
+	}
+
+	/**
+	 * Moves the playlist one entry ahead, starting over or stopping at the end.
+	 * Must run on the playlist executor.
+	 * @return false if the show has ended
+	 */
+	protected boolean advance(){
+		if(isAtEnd()){
+			if(!policy.isLoop()){
+				stop();
+				return false;
+			}
+			playlist.first();
+		}
+		else{
+			playlist.next();
+		}
+		return true;
+	}
+
+	/**
+	 * Must run on the playlist executor
+	 * @return The entry advance would move to, or null if the show ends first
+	 */
+	protected String peekNext(){
+		if(playlist.isEmpty())
+			return null;
+		if(isAtEnd())
+			return policy.isLoop() ? playlist.get(0) : null;
+		return playlist.getNext(1);
+	}
+
+	private boolean isAtEnd(){
+		//Entries flagged invalid at the end of the list are skipped, so the last valid one ends the show
+		int current = playlist.currentIndex();
+		return !playlist.isCircular() && playlist.walk(current, 1, false) == current;
+	}
+
+	/**
+	 * Decodes and shows the current entry immediately. Must run on the playlist executor.
+	 */
+	protected void presentCurrent(){
+		final String imagePath = playlist.get();
+		final int position = playlist.currentIndex();
+		final long token = cancelPending();
+
+		execute(new Runnable(){
+			@Override
+			public void run() {
+				F frame = decodeFrame(position, imagePath);
+				if(isCurrent(token)){
+					long shown = System.nanoTime();
+					deliver(position, imagePath, frame);
+					playlistExecutor.execute(new Runnable(){
+						@Override
+						public void run() {
+							if(isCurrent(token))
+								scheduleFollowing(shown, position, imagePath);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * Plans the frame after the one shown at the given time: its deadline is
+	 * when the shown frame's dwell time ends, and its decode is started early
+	 * enough to be ready by then. Must run on the playlist executor.
+	 */
+	protected void scheduleFollowing(long shownNanos, int position, String imagePath){
+		final long token = cancelPending();
+		final long deadline = shownNanos + TimeUnit.MILLISECONDS.toNanos(
+				policy.getDwellMillis(position, imagePath));
+		final String nextPath = peekNext();
+		if(nextPath == null){
+			//End of a show that does not loop, stop once the last frame has had its time
+			schedule(token, deadline, new Runnable(){
+				@Override
+				public void run() {
+					stop();
+				}
+			});
+			return;
+		}
+
+		final long fileBytes = getFileSize(nextPath);
+		long lead = (long) (costModel.predict(fileBytes) * LEAD_FACTOR) + LEAD_MARGIN_NANOS;
+		schedule(token, deadline - lead, new Runnable(){
+			@Override
+			public void run() {
+				final F frame = decodeFrame(-1, nextPath);
+				if(!isCurrent(token))
+					return;
+
+				long now = System.nanoTime();
+				if(now > deadline)
+					deadlinesMissed.incrementAndGet();
+				else
+					deadlinesMet.incrementAndGet();
+
+				//Hold the frame back until its deadline
+				schedule(token, deadline, new Runnable(){
+					@Override
+					public void run() {
+						showPrepared(token, deadline, nextPath, frame);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Advances the playlist and shows the frame decoded for the new entry
+	 */
+	private void showPrepared(final long token, final long deadline, final String imagePath, final F frame){
+		playlistExecutor.execute(new Runnable(){
+			@Override
+			public void run() {
+				if(!isCurrent(token) || !advance())
+					return;
+
+				final int position = playlist.currentIndex();
+				final String current = playlist.get();
+				if(current == null || !current.equals(imagePath)){
+					//The playlist changed underneath the schedule, show what is there now
+					presentCurrent();
+					return;
+				}
+
+				execute(new Runnable(){
+					@Override
+					public void run() {
+						if(!isCurrent(token))
+							return;
+
+						long shown = System.nanoTime();
+						latenessHistogram.record(Math.max(0, shown - deadline));
+						deliver(position, imagePath, frame);
+
+						playlistExecutor.execute(new Runnable(){
+							@Override
+							public void run() {
+								if(isCurrent(token))
+									scheduleFollowing(shown, position, imagePath);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private F decodeFrame(int position, String imagePath){
+		if(imagePath == null)
+			return null;
+
+		long start = System.nanoTime();
+		try{
+			F frame = decoder.decode(imagePath);
+			long nanos = System.nanoTime() - start;
+			decodeHistogram.record(nanos);
+			costModel.record(getFileSize(imagePath), nanos);
+			return frame;
+		}
+		catch(Exception e){
+			framesFailed.incrementAndGet();
+			for(FrameSink<F> sink : sinks)
+				sink.showError(position, imagePath, e);
+			return null;
+		}
+	}
+
+	private void deliver(int position, String imagePath, F frame){
+		if(frame == null)
+			return;
+
+		framesShown.incrementAndGet();
+		for(FrameSink<F> sink : sinks)
+			sink.showFrame(position, imagePath, frame);
+	}
+
+	private synchronized long cancelPending(){
+		if(pendingTask != null){
+			pendingTask.cancel(false);
+			pendingTask = null;
+		}
+		return ++generation;
+	}
+
+	private synchronized boolean isCurrent(long token){
+		return running && generation == token;
+	}
+
+	private synchronized void execute(Runnable task){
+		if(running && scheduler != null)
+			scheduler.execute(task);
+	}
+
+	private synchronized void schedule(long token, long atNanos, Runnable task){
+		if(!running || scheduler == null || generation != token)
+			return;
+
+		long delay = Math.max(0, atNanos - System.nanoTime());
+		pendingTask = scheduler.schedule(task, delay, TimeUnit.NANOSECONDS);
+	}
+
+	private static long getFileSize(String imagePath){
+		File file = AppUtils.toFile(imagePath);
+		return file != null ? file.length() : 0;
+	}
+}
@@ -0,0 +1,93 @@
+package application.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 
+ * @author John Riley
+ * Settings of a SlideshowEngine: how long each image stays up, whether the
+ * playlist is shuffled when the show starts and what happens at its end
+ */
+public class SlideshowPolicy {
+	
+	public enum ShuffleMode {
+		/* Keep the playlist order as it is */
+		OFF,
+		/* Shuffle with an explicit permutation */
+		SHUFFLE,
+		/* Shuffle with a permutation generated as the show advances */
+		LAZY,
+		/* Draw entries by weight, favoring favorites and avoiding recent repeats */
+		WEIGHTED
+	}
+	
+	public static final long DEFAULT_INTERVAL_MILLIS = 5000;
+	
+	private volatile long intervalMillis;
+	private volatile ShuffleMode shuffleMode;
+	private volatile boolean loop;
+	private final Map<String, Long> dwellTimes;
+	
+	public SlideshowPolicy(){
+		this(DEFAULT_INTERVAL_MILLIS);
+	}
+	
+	public SlideshowPolicy(long intervalMillis){
+		this.intervalMillis = intervalMillis;
+		this.shuffleMode = ShuffleMode.OFF;
+		this.loop = true;
+		this.dwellTimes = new ConcurrentHashMap<String, Long>();
+	}
+	
+	public long getIntervalMillis(){
+		return intervalMillis;
+	}
+	
+	public void setIntervalMillis(long intervalMillis){
+		this.intervalMillis = Math.max(1, intervalMillis);
+	}
+	
+	public ShuffleMode getShuffleMode(){
+		return shuffleMode;
+	}
+	
+	public void setShuffleMode(ShuffleMode shuffleMode){
+		this.shuffleMode = shuffleMode != null ? shuffleMode : ShuffleMode.OFF;
+	}
+	
+	/**
+	 * @return true if the show starts over at the end of the playlist, false if it stops
+	 */
+	public boolean isLoop(){
+		return loop;
+	}
+	
+	public void setLoop(boolean loop){
+		this.loop = loop;
+	}
+	
+	/**
+	 * Keeps a single image on screen for a different amount of time than the interval
+	 * @param imagePath
+	 * @param dwellMillis
+	 */
+	public void setDwellMillis(String imagePath, long dwellMillis){
+		if(imagePath != null)
+			dwellTimes.put(imagePath, Math.max(1, dwellMillis));
+	}
+	
+	public void clearDwellTimes(){
+		dwellTimes.clear();
+	}
+	
+	/**
+	 * @param position Position of the image in the playlist
+	 * @param imagePath
+	 * @return How long the image stays on screen
+	 */
+	public long getDwellMillis(int position, String imagePath){
+		Long dwell = imagePath != null ? dwellTimes.get(imagePath) : null;
+		return dwell != null ? dwell : intervalMillis;
+	}
+}
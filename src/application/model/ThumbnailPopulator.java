@@ -0,0 +1,120 @@
+package application.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javafx.application.Platform;
+
+/**
+ *
+ * @author John Riley
+ * Fills the thumbnail store for a whole playlist in the background, so
+ * thumbnails are read back from disk the first time they are shown rather
+ * than decoded while the user waits. Entries are walked in list order on a
+ * single thread of the lowest priority, taken from the playlist in batches
+ * on the JavaFX application thread, and entries whose thumbnail is stored
+ * already are skipped, so running it again over the same playlist is cheap.
+ * Every thumbnail is written before the next is decoded, and the walk stops
+ * once the store is close to full rather than evict thumbnails in use.
+ */
+public class ThumbnailPopulator {
+
+	private static final int BATCH_SIZE = 256;
+
+	private final IndexedImagePlaylist playlist;
+	private final ImageLoader imageLoader;
+	private final double width, height;
+
+	private volatile boolean cancelled, started;
+
+	/**
+	 * @param width Bounding width of the thumbnails to store
+	 * @param height Bounding height of the thumbnails to store
+	 */
+	public ThumbnailPopulator(IndexedImagePlaylist playlist, ImageLoader imageLoader, double width, double height){
+		this.playlist = playlist;
+		this.imageLoader = imageLoader;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Starts storing thumbnails in the background
+	 */
+	public void start(){
+		if(started)
+			return;
+		started = true;
+
+		Thread thread = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				try{
+					populate();
+				}
+				catch(InterruptedException e){
+					cancelled = true;
+				}
+			}
+		}, "thumbnail-populator");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	public void cancel(){
+		cancelled = true;
+	}
+
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	public IndexedImagePlaylist getPlaylist(){
+		return playlist;
+	}
+
+	private void populate() throws InterruptedException {
+		int next = 0;
+		while(!cancelled){
+			List<String> batch = fetch(next);
+			if(batch == null || batch.isEmpty())
+				return;
+
+			for(String imagePath : batch){
+				ThumbnailStore store = imageLoader.getThumbnailStore();
+				if(cancelled || store == null || store.isFull())
+					return;
+				imageLoader.storeThumbnail(imagePath, width, height);
+			}
+			next += batch.size();
+		}
+	}
+
+	/**
+	 * Reads the next batch of entries on the JavaFX application thread
+	 * @return The batch, or null if the playlist could not be read
+	 */
+	private List<String> fetch(final int start) throws InterruptedException {
+		FutureTask<List<String>> task = new FutureTask<List<String>>(new Callable<List<String>>(){
+			@Override
+			public List<String> call() {
+				int end = Math.min(playlist.entryCount(), start + BATCH_SIZE);
+				List<String> paths = new ArrayList<String>(Math.max(0, end - start));
+				for(int index = start; index < end; index++)
+					paths.add(playlist.getEntry(index));
+				return paths;
+			}
+		});
+		Platform.runLater(task);
+		try{
+			return task.get();
+		}
+		catch(ExecutionException e){
+			return null;
+		}
+	}
+}
@@ -0,0 +1,413 @@
+package application.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ *
+ * @author John Riley
+ * Keeps decoded thumbnails on disk so they survive a restart. Every thumbnail
+ * is a small blob of deflated ARGB pixels, named after a hash of the image
+ * path, its modification time, its file size and the thumbnail size, so an
+ * edited image simply misses instead of showing a stale thumbnail.
+ *
+ * Blobs are written on a background thread. Once the store grows past its
+ * byte limit, the blobs used least recently are deleted; reading a blob
+ * refreshes its modification time, which doubles as the last use time.
+ */
+public class ThumbnailStore {
+
+	/* "SIPT" */
+	private static final int MAGIC = 0x53495054;
+	private static final int VERSION = 1;
+
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	/* Eviction goes a little below the limit so it does not run on every write */
+	private static final double EVICTION_TARGET = 0.9;
+
+	private static final String BLOB_SUFFIX = ".thumb";
+
+	private final File directory;
+	private final long maxBytes;
+	private final ExecutorService writer;
+	private final AtomicLong byteCount, hitCount, missCount;
+
+	public ThumbnailStore(File directory){
+		this(directory, DEFAULT_MAX_BYTES);
+	}
+
+	public ThumbnailStore(File directory, long maxBytes){
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.byteCount = new AtomicLong();
+		this.hitCount = new AtomicLong();
+		this.missCount = new AtomicLong();
+
+		ImageLoader.DaemonThreadFactory factory = new ImageLoader.DaemonThreadFactory("thumbnail-store");
+		factory.setPriority(Thread.MIN_PRIORITY);
+		writer = Executors.newSingleThreadExecutor(factory);
+
+		//Count what earlier runs left behind before the first write needs it
+		writer.execute(new Runnable(){
+			@Override
+			public void run() {
+				byteCount.addAndGet(measure());
+			}
+		});
+	}
+
+	/**
+	 * @return ~/.picshuffle/thumbnails
+	 */
+	public static File getDefaultDirectory(){
+		return new File(new File(System.getProperty("user.home"), ".picshuffle"), "thumbnails");
+	}
+
+	public File getDirectory(){
+		return directory;
+	}
+
+	public long getMaxBytes(){
+		return maxBytes;
+	}
+
+	public long getByteCount(){
+		return byteCount.get();
+	}
+
+	public long getHitCount(){
+		return hitCount.get();
+	}
+
+	public long getMissCount(){
+		return missCount.get();
+	}
+
+	/**
+	 * @param imagePath URL of the original image
+	 * @param width Bounding width the thumbnail was made for
+	 * @param height Bounding height the thumbnail was made for
+	 * @return The stored thumbnail, or null if there is none for the current
+	 * version of the file
+	 */
+	public Image get(String imagePath, double width, double height){
+		String key = getKey(imagePath, width, height);
+		File blob = key != null ? getBlobFile(key) : null;
+		if(blob == null || !blob.isFile()){
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		try{
+			Image image = readBlob(blob, key);
+			if(image != null){
+				hitCount.incrementAndGet();
+				blob.setLastModified(System.currentTimeMillis());
+				return image;
+			}
+		}
+		catch(IOException | DataFormatException | RuntimeException e){
+			//Damaged blobs are dropped and regenerated by the caller
+			delete(blob);
+		}
+		missCount.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @return true once the store is close enough to its limit that adding more
+	 * would start evicting thumbnails that were actually shown
+	 */
+	public boolean isFull(){
+		return byteCount.get() >= maxBytes * EVICTION_TARGET;
+	}
+
+	/**
+	 * Checks for a stored thumbnail without reading it or counting a hit or miss
+	 * @return true if there is one for the current version of the file
+	 */
+	public boolean contains(String imagePath, double width, double height){
+		String key = getKey(imagePath, width, height);
+		return key != null && getBlobFile(key).isFile();
+	}
+
+	/**
+	 * Stores the thumbnail in the background
+	 * @param imagePath URL of the original image
+	 * @param width Bounding width the thumbnail was made for
+	 * @param height Bounding height the thumbnail was made for
+	 * @param thumbnail Fully loaded thumbnail
+	 * @return The pending write, or null if nothing is written
+	 */
+	public Future<?> put(String imagePath, double width, double height, Image thumbnail){
+		if(thumbnail == null || thumbnail.isError() || thumbnail.getPixelReader() == null)
+			return null;
+
+		final String key = getKey(imagePath, width, height);
+		if(key == null)
+			return null;
+
+		//Grab the pixels now, the image may be gone by the time the writer runs
+		final int w = (int) thumbnail.getWidth();
+		final int h = (int) thumbnail.getHeight();
+		if(w <= 0 || h <= 0)
+			return null;
+		final int[] pixels = new int[w * h];
+		thumbnail.getPixelReader().getPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixels, 0, w);
+
+		try{
+			return writer.submit(new Runnable(){
+				@Override
+				public void run() {
+					try{
+						write(key, w, h, pixels);
+					}
+					catch(IOException e){
+						//The store is only a cache, the thumbnail is decoded again next time
+					}
+				}
+			});
+		}
+		catch(RuntimeException e){
+			//Rejected after close
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes every stored thumbnail
+	 */
+	public void clear(){
+		writer.execute(new Runnable(){
+			@Override
+			public void run() {
+				for(File blob : listBlobs())
+					delete(blob);
+			}
+		});
+	}
+
+	/**
+	 * Finishes the pending writes, waiting at most a couple of seconds
+	 */
+	public void close(){
+		writer.shutdown();
+		try{
+			writer.awaitTermination(2, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return Identifies one version of the file at one thumbnail size, or null
+	 * if the image is not a local file
+	 */
+	protected static String getKey(String imagePath, double width, double height){
+		File file = AppUtils.toFile(imagePath);
+		if(file == null)
+			return null;
+
+		long modified = file.lastModified();
+		if(modified == 0)
+			return null;
+
+		return imagePath + '|' + modified + '|' + file.length() + '|' + (int) width + 'x' + (int) height;
+	}
+
+	private File getBlobFile(String key){
+		String name = String.format("%016x", hash(key));
+		return new File(new File(directory, name.substring(0, 2)), name + BLOB_SUFFIX);
+	}
+
+	private void write(String key, int width, int height, int[] pixels) throws IOException {
+		File blob = getBlobFile(key);
+		File parent = blob.getParentFile();
+		if(!parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Unable to create " + parent);
+
+		ByteBuffer raw = ByteBuffer.allocate(pixels.length * 4);
+		raw.asIntBuffer().put(pixels);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(pixels.length * 2 + 256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(keyBytes.length);
+		out.write(keyBytes);
+		out.writeInt(width);
+		out.writeInt(height);
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try{
+			deflater.setInput(raw.array());
+			deflater.finish();
+			byte[] chunk = new byte[8192];
+			while(!deflater.finished()){
+				int length = deflater.deflate(chunk);
+				out.write(chunk, 0, length);
+			}
+		}
+		finally{
+			deflater.end();
+		}
+		out.flush();
+
+		long previous = blob.isFile() ? blob.length() : 0;
+		Path temp = Files.createTempFile(parent.toPath(), ".thumb", ".tmp");
+		try{
+			Files.write(temp, bytes.toByteArray());
+			Files.move(temp, blob.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally{
+			Files.deleteIfExists(temp);
+		}
+
+		if(byteCount.addAndGet(bytes.size() - previous) > maxBytes)
+			evict();
+	}
+
+	private Image readBlob(File blob, String key) throws IOException, DataFormatException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(blob.toPath()));
+		if(in.getInt() != MAGIC || in.getShort() != VERSION)
+			throw new IOException("Not a thumbnail: " + blob);
+
+		int keyLength = in.getInt();
+		if(keyLength < 0 || keyLength > in.remaining())
+			throw new IOException("Bad key in " + blob);
+		byte[] storedKey = new byte[keyLength];
+		in.get(storedKey);
+		if(!key.equals(new String(storedKey, StandardCharsets.UTF_8)))
+			return null; //Hash collision with another image
+
+		int width = in.getInt();
+		int height = in.getInt();
+		if(width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE / 4)
+			throw new IOException("Bad thumbnail size in " + blob);
+
+		byte[] raw = new byte[width * height * 4];
+		Inflater inflater = new Inflater();
+		try{
+			inflater.setInput(in.array(), in.position(), in.remaining());
+			int length = 0;
+			while(length < raw.length && !inflater.finished()){
+				int n = inflater.inflate(raw, length, raw.length - length);
+				if(n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				length += n;
+			}
+			if(length != raw.length)
+				throw new IOException("Truncated thumbnail " + blob);
+		}
+		finally{
+			inflater.end();
+		}
+
+		int[] pixels = new int[width * height];
+		ByteBuffer.wrap(raw).asIntBuffer().get(pixels);
+		WritableImage image = new WritableImage(width, height);
+		image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+		return image;
+	}
+
+	/**
+	 * Deletes the least recently used blobs until the store is back under its limit
+	 */
+	private void evict(){
+		List<File> blobs = listBlobs();
+		final long[] lastUsed = new long[blobs.size()];
+		Integer[] order = new Integer[blobs.size()];
+		long total = 0;
+		for(int i = 0; i < order.length; i++){
+			File blob = blobs.get(i);
+			lastUsed[i] = blob.lastModified();
+			order[i] = i;
+			total += blob.length();
+		}
+
+		Arrays.sort(order, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(lastUsed[a], lastUsed[b]);
+			}
+		});
+
+		long target = (long) (maxBytes * EVICTION_TARGET);
+		for(int i = 0; i < order.length && total > target; i++){
+			File blob = blobs.get(order[i]);
+			long length = blob.length();
+			if(blob.delete())
+				total -= length;
+		}
+		byteCount.set(total);
+	}
+
+	private long measure(){
+		long total = 0;
+		for(File blob : listBlobs())
+			total += blob.length();
+		return total;
+	}
+
+	private List<File> listBlobs(){
+		List<File> blobs = new ArrayList<File>();
+		File[] shards = directory.listFiles();
+		if(shards == null)
+			return blobs;
+
+		for(File shard : shards){
+			File[] files = shard.listFiles();
+			if(files == null)
+				continue;
+			for(File file : files){
+				if(file.getName().endsWith(BLOB_SUFFIX))
+					blobs.add(file);
+			}
+		}
+		return blobs;
+	}
+
+	private void delete(File blob){
+		long length = blob.length();
+		if(blob.delete())
+			byteCount.addAndGet(-length);
+	}
+
+	/**
+	 * 64 bit FNV-1a
+	 */
+	static long hash(String key){
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < key.length(); i++){
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
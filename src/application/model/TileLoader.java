@@ -0,0 +1,116 @@
+package application.model;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+/**
+ *
+ * @author John Riley
+ * Decodes the tiles of TiledImages in the background and keeps them in a
+ * byte bounded LRU cache. Tiles are requested by the renderer on every
+ * redraw, and requests for tiles that have scrolled out of view are dropped
+ * before they are decoded.
+ */
+public class TileLoader {
+
+	public static final int DEFAULT_THREAD_COUNT = 2;
+	public static final long DEFAULT_CACHE_BYTES = 128L * 1024 * 1024;
+
+	private final ExecutorService executor;
+	private final ImageCache tiles;
+	private final Map<String, Future<?>> pending;
+
+	public TileLoader(){
+		this(DEFAULT_THREAD_COUNT, DEFAULT_CACHE_BYTES);
+	}
+
+	public TileLoader(int threadCount, long cacheBytes){
+		executor = Executors.newFixedThreadPool(Math.max(1, threadCount),
+												new ImageLoader.DaemonThreadFactory("tile-decoder"));
+		tiles = new ImageCache(cacheBytes);
+		pending = new ConcurrentHashMap<String, Future<?>>();
+	}
+
+	public static String getTileKey(TiledImage image, int level, int column, int row){
+		return image.getImagePath() + '#' + level + '/' + column + '/' + row;
+	}
+
+	/**
+	 * @return The tile if it has been decoded, otherwise null
+	 */
+	public Image getTile(TiledImage image, int level, int column, int row){
+		return tiles.get(getTileKey(image, level, column, row));
+	}
+
+	/**
+	 * Queues the tile for decoding unless it is cached or already queued
+	 * @param onLoaded Run on the JavaFX application thread once the tile is cached
+	 */
+	public void request(final TiledImage image, final int level, final int column, final int row,
+						final Runnable onLoaded){
+		final String key = getTileKey(image, level, column, row);
+		if(pending.containsKey(key) || tiles.contains(key))
+			return;
+
+		Runnable task = new Runnable(){
+			@Override
+			public void run() {
+				try{
+					Image tile = image.decodeTile(level, column, row);
+					if(tile != null){
+						tiles.put(key, tile);
+						if(onLoaded != null)
+							Platform.runLater(onLoaded);
+					}
+				}
+				catch(Exception e){
+					//The coarser level stays on screen in place of a tile that cannot be read
+				}
+			}
+		};
+
+		FutureTask<Void> future = new FutureTask<Void>(task, null){
+			@Override
+			protected void done() {
+				//Only this request's own entry, a newer one for the same tile stays
+				pending.remove(key, this);
+			}
+		};
+		if(pending.putIfAbsent(key, future) == null)
+			executor.execute(future);
+	}
+
+	/**
+	 * Drops every queued request that is not in the given set
+	 * @param wanted Keys of the tiles still needed
+	 */
+	public void retain(Set<String> wanted){
+		Iterator<Map.Entry<String, Future<?>>> it = pending.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<String, Future<?>> entry = it.next();
+			if(!wanted.contains(entry.getKey())){
+				entry.getValue().cancel(false);
+				it.remove();
+			}
+		}
+	}
+
+	public ImageCache getCache(){
+		return tiles;
+	}
+
+	public void shutdown(){
+		executor.shutdownNow();
+		pending.clear();
+		tiles.clear();
+	}
+}
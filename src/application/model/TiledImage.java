@@ -0,0 +1,168 @@
+package application.model;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ *
+ * @author John Riley
+ * An image too large to decode in one piece, read as a pyramid of tiles.
+ * Level 0 is the full resolution and every level above it halves both
+ * dimensions. A tile is TILE_SIZE pixels square at its own level, and is
+ * decoded straight from the file with an ImageIO source region and
+ * subsampling, so only the part of the image on screen is ever in memory.
+ */
+public class TiledImage {
+
+	public static final int TILE_SIZE = 512;
+
+	/* Images with more pixels than this are shown tiled instead of decoded whole */
+	public static final long TILING_THRESHOLD_PIXELS = 64L * 1024 * 1024;
+
+	/* Longest side that is still decoded whole */
+	public static final int TILING_THRESHOLD_SIDE = 16384;
+
+	private final String imagePath;
+	private final File file;
+	private final int width, height, levelCount;
+
+	private TiledImage(String imagePath, File file, int width, int height){
+		this.imagePath = imagePath;
+		this.file = file;
+		this.width = width;
+		this.height = height;
+
+		int levels = 1;
+		while(Math.max(width, height) >> (levels - 1) > TILE_SIZE)
+			levels++;
+		this.levelCount = levels;
+	}
+
+	/**
+	 * Reads the size of the image from its header
+	 * @param imagePath URL of a local image file
+	 * @return The image, or null if it cannot be read by ImageIO
+	 */
+	public static TiledImage open(String imagePath){
+		File file = AppUtils.toFile(imagePath);
+		int[] size = ImageLoader.readDimensions(imagePath);
+		if(file == null || size == null || size[0] <= 0 || size[1] <= 0)
+			return null;
+
+		return new TiledImage(imagePath, file, size[0], size[1]);
+	}
+
+	/**
+	 * @return true if an image of this size should be tiled rather than decoded whole
+	 */
+	public static boolean needsTiling(int width, int height){
+		return (long) width * height > TILING_THRESHOLD_PIXELS ||
+				Math.max(width, height) > TILING_THRESHOLD_SIDE;
+	}
+
+	public boolean needsTiling(){
+		return needsTiling(width, height);
+	}
+
+	public String getImagePath(){
+		return imagePath;
+	}
+
+	public int getWidth(){
+		return width;
+	}
+
+	public int getHeight(){
+		return height;
+	}
+
+	public int getLevelCount(){
+		return levelCount;
+	}
+
+	/**
+	 * @param scale Screen pixels per image pixel
+	 * @return The coarsest level that still has at least one pixel per screen pixel
+	 */
+	public int getLevelForScale(double scale){
+		if(scale <= 0)
+			return levelCount - 1;
+
+		int level = (int) Math.floor(Math.log(1 / scale) / Math.log(2));
+		return Math.max(0, Math.min(levelCount - 1, level));
+	}
+
+	/**
+	 * @param level
+	 * @return Width and height of a tile at the given level, in full resolution pixels
+	 */
+	public int getTileSpan(int level){
+		return TILE_SIZE << level;
+	}
+
+	public int getColumnCount(int level){
+		int span = getTileSpan(level);
+		return (width + span - 1) / span;
+	}
+
+	public int getRowCount(int level){
+		int span = getTileSpan(level);
+		return (height + span - 1) / span;
+	}
+
+	/**
+	 * Decodes one tile from the file. Safe to call from several threads at once,
+	 * every call opens its own reader.
+	 * @param level
+	 * @param column
+	 * @param row
+	 * @return The tile, at most TILE_SIZE pixels square, or null if it lies outside the image
+	 * @throws IOException If the file cannot be decoded
+	 */
+	public Image decodeTile(int level, int column, int row) throws IOException {
+		int subsampling = 1 << level;
+		int span = getTileSpan(level);
+		int x = column * span, y = row * span;
+		if(level < 0 || level >= levelCount || x < 0 || y < 0 || x >= width || y >= height)
+			return null;
+
+		Rectangle region = new Rectangle(x, y, Math.min(span, width - x), Math.min(span, height - y));
+		try(ImageInputStream in = ImageIO.createImageInputStream(file)){
+			Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+			if(readers == null || !readers.hasNext())
+				throw new IOException("No reader for " + imagePath);
+
+			ImageReader reader = readers.next();
+			try{
+				reader.setInput(in, true, true);
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceRegion(region);
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return toImage(reader.read(0, param));
+			}
+			finally{
+				reader.dispose();
+			}
+		}
+	}
+
+	private static Image toImage(BufferedImage tile){
+		int w = tile.getWidth(), h = tile.getHeight();
+		int[] pixels = tile.getRGB(0, 0, w, h, null, 0, w);
+		WritableImage image = new WritableImage(w, h);
+		image.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixels, 0, w);
+		return image;
+	}
+}
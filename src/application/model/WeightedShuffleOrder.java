@@ -0,0 +1,394 @@
+package application.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ *
+ * @author John Riley
+ * Random playlist order where entries are drawn one at a time by weight
+ * instead of being permuted. Favorites are drawn more often, an entry is
+ * never drawn again within the next noRepeatWindow draws, and once that
+ * window has passed it comes back at reduced weight for another window
+ * before its full weight returns.
+ *
+ * The weights are kept in a Fenwick tree, so a draw and a weight change are
+ * both O(log n) and nothing is rebuilt when favorites change. Positions are
+ * drawn on demand and remembered, so looking ahead always returns the entry
+ * that will actually be shown and going back replays the same entries.
+ * A cycle holds one position per entry, entries can repeat within it and
+ * some may not show up at all. Inserting or removing entries anywhere but
+ * at the end rebuilds the tree in linear time.
+ */
+public class WeightedShuffleOrder extends PlaylistOrder {
+
+	private static final long serialVersionUID = 1;
+
+	public static final double DEFAULT_FAVORITE_WEIGHT = 4;
+	public static final int DEFAULT_NO_REPEAT_WINDOW = 50;
+
+	/* Share of its weight an entry gets back once its no repeat window has passed */
+	private static final double RECOVERY_FACTOR = 0.5;
+
+	private final Random rng;
+	private final double favoriteWeight;
+	private final int noRepeatWindow;
+
+	private int count;
+
+	/* Current weight of every entry and a 1 based Fenwick tree over them */
+	private double[] weights;
+	private double[] tree;
+
+	/* Number of entries with a weight above zero, the tree sum can drift away from zero */
+	private int weighted;
+
+	private final BitSet favorites, excluded;
+
+	/* Entries inside their no repeat window, and entries back at reduced weight */
+	private final BitSet cooling, recovering;
+
+	/* The last two windows of draws, so entries can be released in the order they were drawn */
+	private final int[] recent;
+	private long draws;
+
+	/* Entries drawn for the positions of the current cycle */
+	private int[] history;
+	private int drawn;
+
+	/**
+	 * @param size Number of entries
+	 * @param seed
+	 */
+	public WeightedShuffleOrder(int size, long seed){
+		this(size, seed, DEFAULT_FAVORITE_WEIGHT, DEFAULT_NO_REPEAT_WINDOW);
+	}
+
+	/**
+	 * @param size Number of entries
+	 * @param seed
+	 * @param favoriteWeight How many times more often a favorite is drawn than other entries
+	 * @param noRepeatWindow Number of draws before an entry can be drawn again
+	 */
+	public WeightedShuffleOrder(int size, long seed, double favoriteWeight, int noRepeatWindow){
+		this.rng = new Random(seed);
+		this.favoriteWeight = favoriteWeight;
+		this.noRepeatWindow = Math.max(0, noRepeatWindow);
+		this.count = size;
+		this.favorites = new BitSet();
+		this.excluded = new BitSet();
+		this.cooling = new BitSet();
+		this.recovering = new BitSet();
+		this.recent = new int[this.noRepeatWindow * 2];
+		Arrays.fill(recent, -1);
+		this.history = new int[Math.max(16, size)];
+
+		this.weights = new double[Math.max(16, size)];
+		Arrays.fill(weights, 0, size, 1);
+		rebuildTree();
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public int indexAt(int position) {
+		while(drawn <= position){
+			if(drawn == history.length)
+				history = Arrays.copyOf(history, drawn + (drawn >> 1) + 1);
+			history[drawn++] = draw();
+		}
+		return history[position];
+	}
+
+	/**
+	 * @return The first position the entry was drawn for in this cycle, or -1 if it has not been drawn
+	 */
+	@Override
+	public int positionOf(int index) {
+		for(int i = 0; i < drawn; i++){
+			if(history[i] == index)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Makes the given entry the first position of the cycle
+	 */
+	public void startWith(int index){
+		if(index < 0 || index >= count)
+			return;
+
+		drawn = 0;
+		history[drawn++] = index;
+		recordDraw(index);
+	}
+
+	/**
+	 * Forgets the positions drawn so far and starts drawing a new cycle. The
+	 * no repeat window carries over, so the end of one cycle is not repeated
+	 * at the start of the next.
+	 */
+	public void nextCycle(){
+		drawn = 0;
+	}
+
+	public void setFavorite(int index, boolean favorite){
+		if(index < 0 || index >= count || favorites.get(index) == favorite)
+			return;
+
+		favorites.set(index, favorite);
+		updateWeight(index);
+	}
+
+	public boolean isFavorite(int index){
+		return favorites.get(index);
+	}
+
+	/**
+	 * @param excluded true to never draw the entry, for entries that cannot be shown
+	 */
+	public void setExcluded(int index, boolean excluded){
+		if(index < 0 || index >= count || this.excluded.get(index) == excluded)
+			return;
+
+		this.excluded.set(index, excluded);
+		updateWeight(index);
+	}
+
+	/**
+	 * @return The weight the entry is drawn with right now
+	 */
+	public double getWeight(int index){
+		return weights[index];
+	}
+
+	public int getNoRepeatWindow(){
+		return noRepeatWindow;
+	}
+
+	/**
+	 * Appending only extends the tree, anything else rebuilds it
+	 */
+	@Override
+	public void entryInserted(int index) {
+		if(count == weights.length){
+			weights = Arrays.copyOf(weights, count + (count >> 1) + 1);
+			count++;
+			rebuildTree();
+		}
+		else{
+			count++;
+		}
+
+		if(index < count - 1){
+			System.arraycopy(weights, index, weights, index + 1, count - 1 - index);
+			weights[index] = 0;
+			shiftEntries(index, 1);
+			rebuildTree();
+		}
+		updateWeight(index);
+	}
+
+	/**
+	 * An entry may have been drawn for several positions and every one of them
+	 * goes with it, only the first is returned. Callers keeping a position
+	 * should use entriesRemoved, which counts them all.
+	 */
+	@Override
+	public int entryRemoved(int index) {
+		int position = positionOf(index);
+		entriesRemoved(new int[]{index}, 0);
+		return position;
+	}
+
+	/**
+	 * Compacts the history, the flags and the weights in one pass each and
+	 * rebuilds the tree once
+	 */
+	@Override
+	public int entriesRemoved(int[] removed, int position) {
+		int before = 0;
+		int j = 0;
+		for(int i = 0; i < drawn; i++){
+			int value = renumber(removed, history[i]);
+			if(value < 0){
+				if(i < position)
+					before++;
+				continue;
+			}
+			history[j++] = value;
+		}
+		drawn = j;
+
+		for(int i = 0; i < recent.length; i++){
+			if(recent[i] >= 0)
+				recent[i] = renumber(removed, recent[i]);
+		}
+
+		IndexedImagePlaylist.removeBits(favorites, removed);
+		IndexedImagePlaylist.removeBits(excluded, removed);
+		IndexedImagePlaylist.removeBits(cooling, removed);
+		IndexedImagePlaylist.removeBits(recovering, removed);
+
+		j = 0;
+		for(int i = 0; i < count; i++){
+			if(renumber(removed, i) >= 0)
+				weights[j++] = weights[i];
+		}
+		Arrays.fill(weights, j, count, 0);
+		count = j;
+		rebuildTree();
+		return before;
+	}
+
+	/**
+	 * Renumbers everything that refers to entries at or after an index
+	 */
+	private void shiftEntries(int from, int offset){
+		for(int i = 0; i < drawn; i++){
+			if(history[i] >= from)
+				history[i] += offset;
+		}
+		for(int i = 0; i < recent.length; i++){
+			if(recent[i] >= from)
+				recent[i] += offset;
+		}
+		IndexedImagePlaylist.shiftBits(favorites, from, offset);
+		IndexedImagePlaylist.shiftBits(excluded, from, offset);
+		IndexedImagePlaylist.shiftBits(cooling, from, offset);
+		IndexedImagePlaylist.shiftBits(recovering, from, offset);
+	}
+
+	/**
+	 * Releases the entries whose windows end now, then picks an entry with
+	 * probability proportional to its weight
+	 */
+	private int draw(){
+		releaseWindows();
+
+		if(weighted == 0){
+			//Window longer than the playlist, or everything excluded, let every entry back in
+			cooling.clear();
+			recovering.clear();
+			Arrays.fill(recent, -1);
+			for(int i = 0; i < count; i++)
+				weights[i] = baseWeight(i);
+			rebuildTree();
+		}
+
+		int index;
+		if(weighted == 0){
+			index = rng.nextInt(count);
+		}
+		else{
+			index = find(rng.nextDouble() * prefixSum(count));
+			if(weights[index] <= 0){
+				//Rounding in the tree landed on an entry without weight, sum it up afresh
+				rebuildTree();
+				index = find(rng.nextDouble() * prefixSum(count));
+				if(weights[index] <= 0)
+					index = find(0); //A fresh tree holds the zero weights exactly, this is the first weighted entry
+			}
+		}
+		recordDraw(index);
+		return index;
+	}
+
+	private void releaseWindows(){
+		if(noRepeatWindow == 0)
+			return;
+
+		if(draws >= noRepeatWindow){
+			int index = recent[(int) ((draws - noRepeatWindow) % recent.length)];
+			if(index >= 0 && cooling.get(index)){
+				cooling.clear(index);
+				recovering.set(index);
+				updateWeight(index);
+			}
+		}
+		if(draws >= recent.length){
+			int index = recent[(int) (draws % recent.length)];
+			if(index >= 0 && recovering.get(index)){
+				recovering.clear(index);
+				updateWeight(index);
+			}
+		}
+	}
+
+	private void recordDraw(int index){
+		if(noRepeatWindow > 0){
+			recent[(int) (draws % recent.length)] = index;
+			cooling.set(index);
+			recovering.clear(index);
+			updateWeight(index);
+		}
+		draws++;
+	}
+
+	private double baseWeight(int index){
+		if(excluded.get(index))
+			return 0;
+		return favorites.get(index) ? favoriteWeight : 1;
+	}
+
+	private void updateWeight(int index){
+		double weight = baseWeight(index);
+		if(cooling.get(index))
+			weight = 0;
+		else if(recovering.get(index))
+			weight *= RECOVERY_FACTOR;
+
+		double delta = weight - weights[index];
+		if(delta == 0)
+			return;
+
+		if((weight > 0) != (weights[index] > 0))
+			weighted += weight > 0 ? 1 : -1;
+		weights[index] = weight;
+		for(int i = index + 1; i < tree.length; i += i & -i)
+			tree[i] += delta;
+	}
+
+	/**
+	 * @return Sum of the weights of the first n entries
+	 */
+	private double prefixSum(int n){
+		double sum = 0;
+		for(int i = n; i > 0; i -= i & -i)
+			sum += tree[i];
+		return sum;
+	}
+
+	/**
+	 * Walks down the tree to the entry whose weight range holds the target
+	 */
+	private int find(double target){
+		int position = 0;
+		for(int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1){
+			int next = position + step;
+			if(next < tree.length && tree[next] <= target){
+				position = next;
+				target -= tree[next];
+			}
+		}
+		return Math.min(position, count - 1);
+	}
+
+	private void rebuildTree(){
+		tree = new double[weights.length + 1];
+		weighted = 0;
+		for(int i = 1; i < tree.length; i++){
+			if(weights[i - 1] > 0)
+				weighted++;
+			tree[i] += weights[i - 1];
+			int parent = i + (i & -i);
+			if(parent < tree.length)
+				tree[parent] += tree[i];
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package application.view;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import application.model.ImageLoader;
+import application.model.IndexedImagePlaylist;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ObservableListBase;
+import javafx.event.EventHandler;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.HBox;
+import javafx.util.Callback;
+
+/**
+ *
+ * @author John Riley
+ * Scrolling grid of thumbnails for a whole playlist. The grid is a ListView
+ * of rows, so only the rows on screen ever get nodes, and the rows themselves
+ * are recycled as the view scrolls. Rows are not stored anywhere either: item
+ * n of the list is simply the number n, and the entries of a row are looked
+ * up in the playlist when the row is drawn. Thumbnails are decoded through the
+ * ImageLoader with each ImageView as the slot, so a view that scrolls away
+ * cancels the decode it no longer needs.
+ */
+public class PlaylistBrowser extends ListView<Integer> {
+
+	public static final double DEFAULT_THUMBNAIL_SIZE = 96;
+
+	/* Space around each thumbnail */
+	private static final double GAP = 4;
+
+	/* Room left for the vertical scroll bar when fitting columns */
+	private static final double SCROLL_BAR_WIDTH = 20;
+
+	private static final String POSITION_KEY = "position";
+	private static final String PATH_KEY = "path";
+
+	/**
+	 * Notified when a thumbnail is clicked
+	 */
+	public interface SelectionListener {
+		/**
+		 * @param position Position of the image in the visiting order of the playlist
+		 */
+		void onImageSelected(int position);
+	}
+
+	private final ImageLoader imageLoader;
+	private final double thumbnailSize;
+	private final RowList rows;
+
+	private IndexedImagePlaylist playlist;
+	private SelectionListener selectionListener;
+	private int columns, syncedVersion;
+
+	public PlaylistBrowser(ImageLoader imageLoader){
+		this(imageLoader, DEFAULT_THUMBNAIL_SIZE);
+	}
+
+	public PlaylistBrowser(ImageLoader imageLoader, double thumbnailSize){
+		this.imageLoader = imageLoader;
+		this.thumbnailSize = thumbnailSize;
+		this.rows = new RowList();
+		this.columns = 1;
+
+		//Every row has the same height, which spares the view from measuring rows it scrolls past
+		setFixedCellSize(thumbnailSize + GAP * 2);
+		getSelectionModel().setSelectionMode(SelectionMode.SINGLE);
+		setItems(rows);
+		setCellFactory(new Callback<ListView<Integer>, ListCell<Integer>>() {
+			@Override
+			public ListCell<Integer> call(ListView<Integer> param) {
+				return new RowCell();
+			}
+		});
+
+		widthProperty().addListener(new InvalidationListener() {
+			@Override
+			public void invalidated(Observable observable) {
+				layoutRows();
+			}
+		});
+	}
+
+	public void setSelectionListener(SelectionListener selectionListener){
+		this.selectionListener = selectionListener;
+	}
+
+	public IndexedImagePlaylist getPlaylist(){
+		return playlist;
+	}
+
+	public void setPlaylist(IndexedImagePlaylist playlist){
+		this.playlist = playlist;
+		layoutRows();
+	}
+
+	/**
+	 * Redraws the grid if the playlist has changed since the last call.
+	 * Cheap enough to call after every navigation.
+	 */
+	public void sync(){
+		if(playlist != null && playlist.getVersion() != syncedVersion)
+			layoutRows();
+	}
+
+	/**
+	 * Scrolls the row holding the position into view
+	 * @param position Position in the visiting order of the playlist
+	 */
+	public void showPosition(int position){
+		if(position >= 0 && position / columns < rows.size())
+			scrollTo(position / columns);
+	}
+
+	public int getColumns(){
+		return columns;
+	}
+
+	/**
+	 * Fits as many columns as the width allows and rebuilds the rows around them
+	 */
+	protected void layoutRows(){
+		double cellWidth = thumbnailSize + GAP * 2;
+		int fitted = Math.max(1, (int) ((getWidth() - SCROLL_BAR_WIDTH) / cellWidth));
+		int count = playlist != null ? playlist.size() : 0;
+
+		columns = fitted;
+		syncedVersion = playlist != null ? playlist.getVersion() : 0;
+		rows.resize((count + columns - 1) / columns);
+		refresh();
+	}
+
+	/**
+	 * Row n of the grid is the number n, nothing is stored per row
+	 */
+	private static class RowList extends ObservableListBase<Integer> {
+		private int size;
+
+		@Override
+		public Integer get(int index) {
+			if(index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			return index;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		void resize(final int newSize){
+			final int oldSize = size;
+			if(newSize == oldSize)
+				return;
+
+			beginChange();
+			if(newSize > oldSize){
+				size = newSize;
+				nextAdd(oldSize, newSize);
+			}
+			else{
+				size = newSize;
+				nextRemove(newSize, range(newSize, oldSize));
+			}
+			endChange();
+		}
+
+		private static List<Integer> range(final int from, final int to){
+			return new AbstractList<Integer>() {
+				@Override
+				public Integer get(int index) {
+					return from + index;
+				}
+
+				@Override
+				public int size() {
+					return to - from;
+				}
+			};
+		}
+	}
+
+	/**
+	 * One row of thumbnails. The ImageViews are kept for the life of the cell
+	 * and pointed at new entries as it is reused.
+	 */
+	private class RowCell extends ListCell<Integer> {
+		private final HBox box;
+
+		RowCell(){
+			box = new HBox(GAP * 2);
+			box.setAlignment(Pos.CENTER_LEFT);
+			box.setPadding(new Insets(GAP));
+		}
+
+		@Override
+		protected void updateItem(Integer row, boolean empty) {
+			super.updateItem(row, empty);
+			setText(null);
+
+			if(empty || row == null || playlist == null){
+				for(int i = 0; i < box.getChildren().size(); i++)
+					clear((ImageView) box.getChildren().get(i));
+				setGraphic(null);
+				return;
+			}
+
+			while(box.getChildren().size() < columns)
+				box.getChildren().add(createView());
+			while(box.getChildren().size() > columns)
+				clear((ImageView) box.getChildren().remove(box.getChildren().size() - 1));
+
+			int size = playlist.size();
+			for(int column = 0; column < columns; column++){
+				ImageView view = (ImageView) box.getChildren().get(column);
+				int position = row * columns + column;
+				if(position < size)
+					show(view, position, playlist.get(position));
+				else
+					clear(view);
+			}
+			setGraphic(box);
+		}
+
+		private ImageView createView(){
+			final ImageView view = new ImageView();
+			view.setFitWidth(thumbnailSize);
+			view.setFitHeight(thumbnailSize);
+			view.setPreserveRatio(true);
+			view.setOnMouseClicked(new EventHandler<MouseEvent>() {
+				@Override
+				public void handle(MouseEvent event) {
+					Object position = view.getProperties().get(POSITION_KEY);
+					if(position != null && selectionListener != null)
+						selectionListener.onImageSelected((Integer) position);
+				}
+			});
+			return view;
+		}
+
+		private void show(final ImageView view, int position, final String imagePath){
+			view.getProperties().put(POSITION_KEY, position);
+			view.setVisible(true);
+			if(imagePath == null){
+				clear(view);
+				return;
+			}
+
+			//Still showing this image from the last time the cell was drawn
+			if(imagePath.equals(view.getProperties().get(PATH_KEY)) && view.getImage() != null)
+				return;
+
+			view.getProperties().put(PATH_KEY, imagePath);
+			view.setImage(null);
+			imageLoader.loadThumbnail(view, imagePath, thumbnailSize, thumbnailSize,
+					new ImageLoader.ImageCallback() {
+						@Override
+						public void onImageLoaded(Image image) {
+							view.setImage(image);
+						}
+
+						@Override
+						public void onImageError(String imagePath) {
+							view.setImage(null);
+						}
+					});
+		}
+
+		private void clear(ImageView view){
+			imageLoader.cancel(view);
+			view.getProperties().remove(POSITION_KEY);
+			view.getProperties().remove(PATH_KEY);
+			view.setImage(null);
+			view.setVisible(false);
+		}
+	}
+}
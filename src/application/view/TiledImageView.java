@@ -0,0 +1,267 @@
+package application.view;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import application.model.TileLoader;
+import application.model.TiledImage;
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.layout.Region;
+
+/**
+ *
+ * @author John Riley
+ * Draws a TiledImage onto a canvas, picking the pyramid level that matches
+ * the zoom and only asking for the tiles that are on screen. Until a tile
+ * arrives, the matching part of a coarser tile that is already cached is
+ * stretched over its place, so zooming and panning never show holes for
+ * longer than a single decode.
+ */
+public class TiledImageView extends Region {
+
+	/* Closest zoom, in screen pixels per image pixel */
+	private static final double MAX_SCALE = 8;
+
+	private final TileLoader tileLoader;
+	private final Canvas canvas;
+
+	private TiledImage image;
+
+	/* Screen pixels per image pixel, and the image point drawn in the middle of the view */
+	private double scale, centerX, centerY;
+
+	private boolean redrawQueued;
+
+	private final Runnable redrawTask = new Runnable(){
+		@Override
+		public void run() {
+			redrawQueued = false;
+			redraw();
+		}
+	};
+
+	private final Runnable tileArrived = new Runnable(){
+		@Override
+		public void run() {
+			requestRedraw();
+		}
+	};
+
+	public TiledImageView(TileLoader tileLoader){
+		this.tileLoader = tileLoader;
+		this.canvas = new Canvas();
+		getChildren().add(canvas);
+		setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
+		setPrefSize(0, 0);
+	}
+
+	public TiledImage getImage(){
+		return image;
+	}
+
+	/**
+	 * Shows the image fitted to the view
+	 */
+	public void setImage(TiledImage image){
+		this.image = image;
+		fit();
+	}
+
+	/**
+	 * Shows the image at the given zoom
+	 * @param scale Screen pixels per image pixel
+	 * @param centerX Image point to put in the middle of the view
+	 * @param centerY
+	 */
+	public void setImage(TiledImage image, double scale, double centerX, double centerY){
+		this.image = image;
+		this.scale = scale;
+		this.centerX = centerX;
+		this.centerY = centerY;
+		clampView();
+		redraw();
+	}
+
+	public double getScale(){
+		return scale;
+	}
+
+	public void fit(){
+		if(image != null){
+			scale = getFitScale();
+			centerX = image.getWidth() / 2.0;
+			centerY = image.getHeight() / 2.0;
+		}
+		redraw();
+	}
+
+	/**
+	 * Zooms while keeping the image point under the pivot where it is
+	 * @param factor Greater than 1 to zoom in
+	 * @param pivotX Position in the view
+	 * @param pivotY
+	 */
+	public void zoom(double factor, double pivotX, double pivotY){
+		if(image == null)
+			return;
+
+		double offsetX = pivotX - getWidth() / 2, offsetY = pivotY - getHeight() / 2;
+		double pointX = centerX + offsetX / scale, pointY = centerY + offsetY / scale;
+
+		scale *= factor;
+		clampView();
+		centerX = pointX - offsetX / scale;
+		centerY = pointY - offsetY / scale;
+		clampView();
+		redraw();
+	}
+
+	/**
+	 * @param dx Screen pixels to move the image by
+	 * @param dy
+	 */
+	public void pan(double dx, double dy){
+		if(image == null)
+			return;
+
+		centerX -= dx / scale;
+		centerY -= dy / scale;
+		clampView();
+		redraw();
+	}
+
+	@Override
+	protected void layoutChildren(){
+		boolean resized = canvas.getWidth() != getWidth() || canvas.getHeight() != getHeight();
+		canvas.setWidth(getWidth());
+		canvas.setHeight(getHeight());
+		if(resized)
+			redraw();
+	}
+
+	/**
+	 * Coalesces the redraws asked for by tiles arriving together into one
+	 */
+	protected void requestRedraw(){
+		if(!redrawQueued){
+			redrawQueued = true;
+			Platform.runLater(redrawTask);
+		}
+	}
+
+	protected void redraw(){
+		GraphicsContext g = canvas.getGraphicsContext2D();
+		double viewWidth = canvas.getWidth(), viewHeight = canvas.getHeight();
+		g.clearRect(0, 0, viewWidth, viewHeight);
+		if(image == null || viewWidth <= 0 || viewHeight <= 0 || scale <= 0)
+			return;
+
+		int level = image.getLevelForScale(scale);
+		int span = image.getTileSpan(level);
+
+		//Part of the image that is on screen
+		double left = Math.max(0, centerX - viewWidth / 2 / scale);
+		double top = Math.max(0, centerY - viewHeight / 2 / scale);
+		double right = Math.min(image.getWidth(), centerX + viewWidth / 2 / scale);
+		double bottom = Math.min(image.getHeight(), centerY + viewHeight / 2 / scale);
+		if(right <= left || bottom <= top)
+			return;
+
+		int firstColumn = (int) (left / span), lastColumn = (int) Math.ceil(right / span) - 1;
+		int firstRow = (int) (top / span), lastRow = (int) Math.ceil(bottom / span) - 1;
+
+		Set<String> wanted = new HashSet<String>();
+		for(int row = firstRow; row <= lastRow; row++){
+			for(int column = firstColumn; column <= lastColumn; column++){
+				int x = column * span, y = row * span;
+				int w = Math.min(span, image.getWidth() - x), h = Math.min(span, image.getHeight() - y);
+
+				Image tile = tileLoader.getTile(image, level, column, row);
+				if(tile != null){
+					drawRegion(g, tile, 0, 0, tile.getWidth(), tile.getHeight(), x, y, w, h);
+				}
+				else{
+					wanted.add(TileLoader.getTileKey(image, level, column, row));
+					tileLoader.request(image, level, column, row, tileArrived);
+					drawFallback(g, level, x, y, w, h);
+				}
+			}
+		}
+
+		//The coarsest level is only a few tiles and backs every missing tile, keep it coming
+		int coarsest = image.getLevelCount() - 1;
+		if(level < coarsest){
+			for(int row = 0; row < image.getRowCount(coarsest); row++){
+				for(int column = 0; column < image.getColumnCount(coarsest); column++){
+					if(tileLoader.getTile(image, coarsest, column, row) == null){
+						wanted.add(TileLoader.getTileKey(image, coarsest, column, row));
+						tileLoader.request(image, coarsest, column, row, tileArrived);
+					}
+				}
+			}
+		}
+		tileLoader.retain(wanted);
+	}
+
+	/**
+	 * Stretches the matching part of the nearest coarser cached tile over a missing one
+	 */
+	private void drawFallback(GraphicsContext g, int level, int x, int y, int w, int h){
+		for(int coarser = level + 1; coarser < image.getLevelCount(); coarser++){
+			int span = image.getTileSpan(coarser);
+			int column = x / span, row = y / span;
+			Image tile = tileLoader.getTile(image, coarser, column, row);
+			if(tile == null)
+				continue;
+
+			double subsampling = 1 << coarser;
+			drawRegion(g, tile, (x - column * span) / subsampling, (y - row * span) / subsampling,
+						w / subsampling, h / subsampling, x, y, w, h);
+			return;
+		}
+	}
+
+	/**
+	 * Draws part of a tile over the given image rectangle, snapping the edges
+	 * to whole screen pixels so neighbouring tiles meet without seams
+	 */
+	private void drawRegion(GraphicsContext g, Image tile, double sx, double sy, double sw, double sh,
+							double x, double y, double w, double h){
+		double screenLeft = Math.floor(toScreenX(x)), screenTop = Math.floor(toScreenY(y));
+		double screenRight = Math.floor(toScreenX(x + w)), screenBottom = Math.floor(toScreenY(y + h));
+		sw = Math.min(sw, tile.getWidth() - sx);
+		sh = Math.min(sh, tile.getHeight() - sy);
+		if(sw > 0 && sh > 0)
+			g.drawImage(tile, sx, sy, sw, sh, screenLeft, screenTop, screenRight - screenLeft, screenBottom - screenTop);
+	}
+
+	private double toScreenX(double x){
+		return (x - centerX) * scale + canvas.getWidth() / 2;
+	}
+
+	private double toScreenY(double y){
+		return (y - centerY) * scale + canvas.getHeight() / 2;
+	}
+
+	private double getFitScale(){
+		if(image == null || getWidth() <= 0 || getHeight() <= 0)
+			return 1;
+		return Math.min(getWidth() / image.getWidth(), getHeight() / image.getHeight());
+	}
+
+	/**
+	 * Keeps the zoom between a quarter of the fitted size and MAX_SCALE,
+	 * and the center of the view on the image
+	 */
+	private void clampView(){
+		if(image == null)
+			return;
+
+		scale = Math.max(getFitScale() / 4, Math.min(MAX_SCALE, scale));
+		centerX = Math.max(0, Math.min(image.getWidth(), centerX));
+		centerY = Math.max(0, Math.min(image.getHeight(), centerY));
+	}
+}